@@ -0,0 +1,459 @@
+package ucles.weblab.common.processor;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Properties of a buildable interface and the setters of its builder interface, as needed to generate source for
+ * both. Property naming follows the proxy implementation: the builder method {@code foo(..)} sets the property
+ * read by {@code getFoo()} or {@code isFoo()}. As with the proxy, default getter methods on the buildable interface are
+ * properties too, so the generated class overrides them to return the value set on the builder.
+ * <p>
+ * Types are written into the generated source by {@link #typeName(TypeMirror)} rather than
+ * {@link TypeMirror#toString()}, which would include any type annotations such as {@code @Nullable} in positions where
+ * they are not valid source.
+ *
+ * @since 18/10/26
+ */
+final class BuildableModel {
+    private final Types types;
+    private final TypeElement builder;
+    private final TypeElement buildable;
+    private final Map<String, Property> properties = new LinkedHashMap<>();
+    private final List<Setter> setters = new ArrayList<>();
+    private String buildReturnType;
+    private String problem;
+
+    private static final class Property {
+        final String name;
+        final String field;
+        final TypeMirror type;
+        final String typeName;
+        final List<String> getters = new ArrayList<>();
+
+        Property(String name, TypeMirror type, String typeName) {
+            this.name = name;
+            this.field = SourceVersion.isKeyword(name) ? name + '_' : name;
+            this.type = type;
+            this.typeName = typeName;
+        }
+
+        boolean isOptional() {
+            return type.getKind() == TypeKind.DECLARED
+                    && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals("java.util.Optional");
+        }
+    }
+
+    private static final class Setter {
+        final String name;
+        final TypeMirror parameterType;
+        final String parameterTypeName;
+        final TypeMirror returnType;
+        final String returnTypeName;
+        final Property property;
+
+        Setter(String name, TypeMirror parameterType, TypeMirror returnType, Property property) {
+            this.name = name;
+            this.parameterType = parameterType;
+            this.parameterTypeName = typeName(parameterType);
+            this.returnType = returnType;
+            this.returnTypeName = typeName(returnType);
+            this.property = property;
+        }
+    }
+
+    private BuildableModel(ProcessingEnvironment processingEnv, TypeElement builder, TypeElement buildable) {
+        this.types = processingEnv.getTypeUtils();
+        this.builder = builder;
+        this.buildable = buildable;
+    }
+
+    static BuildableModel analyse(ProcessingEnvironment processingEnv, TypeElement builder, TypeElement buildable) {
+        final BuildableModel model = new BuildableModel(processingEnv, builder, buildable);
+        for (ExecutableElement method : abstractMethods(processingEnv, buildable)) {
+            model.addGetter(method);
+        }
+        for (ExecutableElement method : defaultMethods(processingEnv, buildable)) {
+            if (model.propertyName(method) != null) {
+                model.addGetter(method);
+            }
+        }
+        for (ExecutableElement method : abstractMethods(processingEnv, builder)) {
+            model.addSetter(method);
+        }
+        if (model.problem == null && model.buildReturnType == null) {
+            model.problem = "no get() method";
+        }
+        return model;
+    }
+
+    String getProblem() {
+        return problem;
+    }
+
+    private static List<ExecutableElement> abstractMethods(ProcessingEnvironment processingEnv, TypeElement type) {
+        final List<ExecutableElement> methods = new ArrayList<>();
+        for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+            if (member.getKind() == ElementKind.METHOD && member.getModifiers().contains(Modifier.ABSTRACT)
+                    && !isObjectMethod((ExecutableElement) member)) {
+                methods.add((ExecutableElement) member);
+            }
+        }
+        return methods;
+    }
+
+    private static List<ExecutableElement> defaultMethods(ProcessingEnvironment processingEnv, TypeElement type) {
+        final List<ExecutableElement> methods = new ArrayList<>();
+        for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+            if (member.getKind() == ElementKind.METHOD && member.getModifiers().contains(Modifier.DEFAULT)) {
+                methods.add((ExecutableElement) member);
+            }
+        }
+        return methods;
+    }
+
+    private static boolean isObjectMethod(ExecutableElement method) {
+        final String name = method.getSimpleName().toString();
+        final int parameterCount = method.getParameters().size();
+        return parameterCount == 0 && (name.equals("toString") || name.equals("hashCode"))
+                || parameterCount == 1 && name.equals("equals");
+    }
+
+    /**
+     * Returns the property name for a getter method of the buildable interface, or <code>null</code> if the method is
+     * not a getter, following the same rules as {@code BuildableType}.
+     */
+    private String propertyName(ExecutableElement method) {
+        final ExecutableType type = (ExecutableType) types.asMemberOf((DeclaredType) buildable.asType(), method);
+        final String methodName = method.getSimpleName().toString();
+        final TypeMirror returnType = type.getReturnType();
+        if (type.getParameterTypes().isEmpty() && returnType.getKind() != TypeKind.VOID) {
+            if (methodName.startsWith("get") && methodName.length() > 3) {
+                return uncapitalize(methodName.substring(3));
+            } else if (methodName.startsWith("is") && methodName.length() > 2 && isBoolean(returnType)) {
+                return uncapitalize(methodName.substring(2));
+            }
+        }
+        return null;
+    }
+
+    private void addGetter(ExecutableElement method) {
+        final String methodName = method.getSimpleName().toString();
+        final TypeMirror returnType = ((ExecutableType) types.asMemberOf((DeclaredType) buildable.asType(), method)).getReturnType();
+        final String name = propertyName(method);
+        if (name == null) {
+            problem = methodName + " is not a property getter";
+            return;
+        }
+
+        Property property = properties.get(name);
+        if (property == null) {
+            final String typeName = typeName(returnType);
+            if (typeName == null) {
+                problem = "type of property " + name + " cannot be written in source";
+                return;
+            }
+            property = new Property(name, returnType, typeName);
+            properties.put(name, property);
+        } else if (!types.isSameType(property.type, returnType)) {
+            problem = "conflicting types for property " + name;
+            return;
+        }
+        property.getters.add(methodName);
+    }
+
+    private void addSetter(ExecutableElement method) {
+        final ExecutableType type = (ExecutableType) types.asMemberOf((DeclaredType) builder.asType(), method);
+        final String methodName = method.getSimpleName().toString();
+        if (methodName.equals("get") && type.getParameterTypes().isEmpty()) {
+            buildReturnType = typeName(type.getReturnType());
+            if (buildReturnType == null) {
+                problem = "return type of get() cannot be written in source";
+            }
+            return;
+        }
+        if (type.getParameterTypes().size() != 1) {
+            problem = methodName + " is not a property setter";
+            return;
+        }
+        final TypeMirror returnType = type.getReturnType();
+        if (returnType.getKind() != TypeKind.VOID && !types.isAssignable(builder.asType(), returnType)) {
+            problem = methodName + " does not return the builder";
+            return;
+        }
+        final TypeMirror parameterType = type.getParameterTypes().get(0);
+        final Property property = properties.get(methodName);
+        if (property != null && !types.isAssignable(parameterType, property.type)) {
+            problem = methodName + " parameter type is incompatible with the property type";
+            return;
+        }
+        final Setter setter = new Setter(methodName, parameterType, returnType, property);
+        if (setter.parameterTypeName == null || setter.returnTypeName == null) {
+            problem = "types of " + methodName + " cannot be written in source";
+            return;
+        }
+        setters.add(setter);
+    }
+
+    private boolean isBoolean(TypeMirror type) {
+        return type.getKind() == TypeKind.BOOLEAN || type.getKind() == TypeKind.DECLARED
+                && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals("java.lang.Boolean");
+    }
+
+    private static String uncapitalize(String name) {
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Returns a type as it should be written in generated source, with fully-qualified names and without type
+     * annotations, or <code>null</code> if it cannot be written, e.g. a type variable or an unresolved type.
+     */
+    static String typeName(TypeMirror type) {
+        final TypeKind kind = type.getKind();
+        if (kind.isPrimitive() || kind == TypeKind.VOID) {
+            return kind.name().toLowerCase(Locale.ROOT);
+        }
+        switch (kind) {
+            case ARRAY:
+                final String componentName = typeName(((ArrayType) type).getComponentType());
+                return componentName == null ? null : componentName + "[]";
+            case DECLARED:
+                return declaredTypeName((DeclaredType) type);
+            case WILDCARD:
+                final WildcardType wildcard = (WildcardType) type;
+                if (wildcard.getExtendsBound() != null) {
+                    final String bound = typeName(wildcard.getExtendsBound());
+                    return bound == null ? null : "? extends " + bound;
+                } else if (wildcard.getSuperBound() != null) {
+                    final String bound = typeName(wildcard.getSuperBound());
+                    return bound == null ? null : "? super " + bound;
+                }
+                return "?";
+            default:
+                return null;
+        }
+    }
+
+    private static String declaredTypeName(DeclaredType type) {
+        final TypeMirror enclosingType = type.getEnclosingType();
+        if (enclosingType.getKind() == TypeKind.DECLARED && !((DeclaredType) enclosingType).getTypeArguments().isEmpty()) {
+            return null; // An inner class of a parameterized type, which is not worth supporting.
+        }
+        final StringBuilder name = new StringBuilder(((TypeElement) type.asElement()).getQualifiedName());
+        if (!type.getTypeArguments().isEmpty()) {
+            String separator = "<";
+            for (TypeMirror argument : type.getTypeArguments()) {
+                final String argumentName = typeName(argument);
+                if (argumentName == null) {
+                    return null;
+                }
+                name.append(separator).append(argumentName);
+                separator = ", ";
+            }
+            name.append('>');
+        }
+        return name.toString();
+    }
+
+    /**
+     * Generates an immutable value class implementing the buildable interface.
+     */
+    String valueSource(String className) {
+        final String simpleName = simpleName(className);
+        final StringBuilder out = new StringBuilder();
+        appendHeader(out, className);
+        out.append("/**\n * Implementation of {@link ").append(buildable.getQualifiedName())
+                .append("} generated by {@code ").append(BuildableProcessor.class.getName()).append("}.\n */\n");
+        out.append("public final class ").append(simpleName).append(" implements ").append(buildable.getQualifiedName()).append(" {\n");
+        for (Property property : properties.values()) {
+            out.append("    private final ").append(property.typeName).append(' ').append(property.field).append(";\n");
+        }
+
+        out.append("\n    public ").append(simpleName).append('(');
+        String separator = "";
+        for (Property property : properties.values()) {
+            out.append(separator).append("final ").append(property.typeName).append(' ').append(property.field);
+            separator = ", ";
+        }
+        out.append(") {\n");
+        for (Property property : properties.values()) {
+            out.append("        this.").append(property.field).append(" = ").append(property.field);
+            if (property.isOptional()) {
+                out.append(" == null ? java.util.Optional.empty() : ").append(property.field);
+            }
+            out.append(";\n");
+        }
+        out.append("    }\n");
+
+        for (Property property : properties.values()) {
+            for (String getter : property.getters) {
+                out.append("\n    @Override\n    public ").append(property.typeName).append(' ').append(getter).append("() {\n")
+                        .append("        return this.").append(property.field).append(";\n    }\n");
+            }
+        }
+
+        final Name buildableName = buildable.getQualifiedName();
+        out.append("\n    @Override\n    public boolean equals(final Object o) {\n")
+                .append("        if (this == o) {\n            return true;\n        }\n")
+                .append("        if (!(o instanceof ").append(simpleName).append(" || o instanceof ").append(buildableName)
+                .append("\n                && ").append(BuildableProcessor.BUILDABLE_TYPE).append(".ofValue((").append(buildableName)
+                .append(") o).getType() == ").append(buildableName).append(".class)) {\n            return false;\n        }\n")
+                .append("        final ").append(buildableName).append(" other = (").append(buildableName).append(") o;\n")
+                .append("        return ");
+        if (properties.isEmpty()) {
+            out.append("true");
+        }
+        separator = "";
+        for (Property property : properties.values()) {
+            out.append(separator).append(equalsExpression(property));
+            separator = "\n                && ";
+        }
+        out.append(";\n    }\n");
+
+        out.append("\n    @Override\n    public int hashCode() {\n        int result = 0;\n");
+        for (Property property : properties.values()) {
+            out.append("        result += \"").append(property.name).append("\".hashCode() ^ ").append(hashCodeExpression(property)).append(";\n");
+        }
+        out.append("        return result;\n    }\n");
+
+        out.append("\n    @Override\n    public String toString() {\n        return \"").append(buildable.getSimpleName()).append("[\"");
+        separator = "";
+        for (Property property : properties.values()) {
+            out.append("\n                + \"").append(separator).append(property.name).append("=\" + this.").append(property.field);
+            separator = ", ";
+        }
+        out.append("\n                + \"]\";\n    }\n}\n");
+        return out.toString();
+    }
+
+    /**
+     * Generates a mutable builder class implementing the builder interface, which creates instances of the value class.
+     */
+    String builderSource(String className, String valueClassName) {
+        final String simpleName = simpleName(className);
+        final StringBuilder out = new StringBuilder();
+        appendHeader(out, className);
+        out.append("/**\n * Implementation of {@link ").append(builder.getQualifiedName())
+                .append("} generated by {@code ").append(BuildableProcessor.class.getName()).append("}.\n */\n");
+        out.append("public final class ").append(simpleName).append(" implements ").append(builder.getQualifiedName()).append(" {\n");
+        for (Property property : properties.values()) {
+            out.append("    private ").append(property.typeName).append(' ').append(property.field).append(";\n");
+        }
+
+        for (Setter setter : setters) {
+            out.append("\n    @Override\n    public ").append(setter.returnTypeName).append(' ').append(setter.name)
+                    .append("(final ").append(setter.parameterTypeName).append(" value) {\n");
+            if (setter.property != null) {
+                out.append("        this.").append(setter.property.field).append(" = ");
+                if (setter.property.type.getKind().isPrimitive() && !setter.parameterType.getKind().isPrimitive()) {
+                    out.append("value == null ? ").append(defaultValue(setter.property.type.getKind())).append(" : value");
+                } else {
+                    out.append("value");
+                }
+                out.append(";\n");
+            }
+            if (setter.returnType.getKind() != TypeKind.VOID) {
+                out.append("        return this;\n");
+            }
+            out.append("    }\n");
+        }
+
+        out.append("\n    @Override\n    public ").append(buildReturnType).append(" get() {\n        return new ")
+                .append(valueClassName).append('(');
+        String separator = "";
+        for (Property property : properties.values()) {
+            out.append(separator).append(property.field);
+            separator = ", ";
+        }
+        out.append(");\n    }\n}\n");
+        return out.toString();
+    }
+
+    private static void appendHeader(StringBuilder out, String className) {
+        final int lastDot = className.lastIndexOf('.');
+        if (lastDot > 0) {
+            out.append("package ").append(className, 0, lastDot).append(";\n\n");
+        }
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Returns an expression comparing a property with the other value, through its getter so that it can be any
+     * implementation of the buildable interface.
+     */
+    private static String equalsExpression(Property property) {
+        final String field = "this." + property.field;
+        final String otherValue = "other." + property.getters.get(0) + "()";
+        switch (property.type.getKind()) {
+            case FLOAT:
+                return "Float.compare(" + field + ", " + otherValue + ") == 0";
+            case DOUBLE:
+                return "Double.compare(" + field + ", " + otherValue + ") == 0";
+            case BOOLEAN:
+            case BYTE:
+            case CHAR:
+            case SHORT:
+            case INT:
+            case LONG:
+                return field + " == " + otherValue;
+            default:
+                return "java.util.Objects.equals(" + field + ", " + otherValue + ")";
+        }
+    }
+
+    private static String hashCodeExpression(Property property) {
+        final String field = "this." + property.field;
+        switch (property.type.getKind()) {
+            case BOOLEAN:
+                return "Boolean.hashCode(" + field + ")";
+            case BYTE:
+                return "Byte.hashCode(" + field + ")";
+            case CHAR:
+                return "Character.hashCode(" + field + ")";
+            case SHORT:
+                return "Short.hashCode(" + field + ")";
+            case INT:
+                return field;
+            case LONG:
+                return "Long.hashCode(" + field + ")";
+            case FLOAT:
+                return "Float.hashCode(" + field + ")";
+            case DOUBLE:
+                return "Double.hashCode(" + field + ")";
+            default:
+                return "java.util.Objects.hashCode(" + field + ")";
+        }
+    }
+
+    private static String defaultValue(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN:
+                return "false";
+            case CHAR:
+                return "'\\0'";
+            default:
+                return "0";
+        }
+    }
+}
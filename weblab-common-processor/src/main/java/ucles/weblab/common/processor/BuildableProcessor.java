@@ -0,0 +1,153 @@
+package ucles.weblab.common.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Annotation processor which generates concrete implementations for builder interfaces extending
+ * {@code ucles.weblab.common.domain.Buildable.Builder} and the {@code Buildable} interfaces they build.
+ * <p>
+ * For a builder interface {@code com.example.FooDto.Builder} building {@code com.example.FooDto}, this generates
+ * {@code com.example.Built_FooDto_Builder} and {@code com.example.Built_FooDto}. {@code BuilderProxyFactory}
+ * looks for the generated builder by that name and uses it in preference to a dynamic proxy. Interfaces which
+ * cannot be implemented statically (generic interfaces, methods which are not getters or setters, incompatible
+ * property types) are skipped with a note, and will continue to be served by the proxy implementation.
+ * <p>
+ * Add this module to the annotation processor path of any project declaring buildable interfaces, e.g. as a
+ * {@code provided} dependency.
+ *
+ * @since 18/10/26
+ */
+@SupportedAnnotationTypes("*")
+public class BuildableProcessor extends AbstractProcessor {
+    static final String BUILDER_INTERFACE = "ucles.weblab.common.domain.Buildable.Builder";
+    static final String BUILDABLE_TYPE = "ucles.weblab.common.domain.BuildableType";
+    /** Must match the prefix used by {@code BuilderProxyFactory} to locate generated builders. */
+    static final String GENERATED_PREFIX = "Built_";
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final TypeElement builderInterface = processingEnv.getElementUtils().getTypeElement(BUILDER_INTERFACE);
+        if (builderInterface == null) {
+            return false; // weblab-common is not on the classpath, so there can be nothing to do.
+        }
+        final TypeMirror builderErasure = processingEnv.getTypeUtils().erasure(builderInterface.asType());
+        for (Element element : roundEnv.getRootElements()) {
+            processElement(element, builderInterface, builderErasure);
+        }
+        return false;
+    }
+
+    private void processElement(Element element, TypeElement builderInterface, TypeMirror builderErasure) {
+        if (element.getKind() == ElementKind.INTERFACE) {
+            final TypeElement type = (TypeElement) element;
+            if (!type.equals(builderInterface) && type.getTypeParameters().isEmpty()
+                    && processingEnv.getTypeUtils().isAssignable(type.asType(), builderErasure)) {
+                processBuilder(type, builderInterface);
+            }
+        }
+        for (Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind().isClass() || enclosed.getKind().isInterface()) {
+                processElement(enclosed, builderInterface, builderErasure);
+            }
+        }
+    }
+
+    private void processBuilder(TypeElement builder, TypeElement builderInterface) {
+        final TypeElement buildable = findBuildable(builder.asType(), builderInterface);
+        if (buildable == null || !buildable.getTypeParameters().isEmpty()) {
+            note(builder, "Buildable type is not a simple interface");
+            return;
+        }
+
+        final BuildableModel model = BuildableModel.analyse(processingEnv, builder, buildable);
+        if (model.getProblem() != null) {
+            note(builder, model.getProblem());
+            return;
+        }
+
+        final String valueName = generatedName(buildable);
+        if (generated.add(valueName) && processingEnv.getElementUtils().getTypeElement(valueName) == null) {
+            write(valueName, model.valueSource(valueName), buildable);
+        }
+        final String builderName = generatedName(builder);
+        if (generated.add(builderName)) {
+            write(builderName, model.builderSource(builderName, valueName), builder);
+        }
+    }
+
+    /**
+     * Finds the buildable type {@code T} for which the builder implements {@code Buildable.Builder<T>}.
+     */
+    private TypeElement findBuildable(TypeMirror type, TypeElement builderInterface) {
+        for (TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type)) {
+            final DeclaredType declared = (DeclaredType) supertype;
+            if (declared.asElement().equals(builderInterface)) {
+                final TypeMirror argument = declared.getTypeArguments().isEmpty() ? null : declared.getTypeArguments().get(0);
+                if (argument != null && argument.getKind() == TypeKind.DECLARED
+                        && ((DeclaredType) argument).asElement().getKind() == ElementKind.INTERFACE) {
+                    return (TypeElement) ((DeclaredType) argument).asElement();
+                }
+                return null;
+            }
+            final TypeElement found = findBuildable(supertype, builderInterface);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the fully-qualified name of the class generated for a type, e.g. {@code com.example.Built_FooDto_Builder}
+     * for {@code com.example.FooDto.Builder}.
+     */
+    static String generatedName(TypeElement type) {
+        final StringBuilder flatName = new StringBuilder(type.getSimpleName());
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing.getKind() != ElementKind.PACKAGE) {
+            flatName.insert(0, '_').insert(0, enclosing.getSimpleName());
+            enclosing = enclosing.getEnclosingElement();
+        }
+        final String packageName = ((PackageElement) enclosing).getQualifiedName().toString();
+        return (packageName.isEmpty() ? "" : packageName + '.') + GENERATED_PREFIX + flatName;
+    }
+
+    private void write(String className, String source, TypeElement originatingElement) {
+        try {
+            final JavaFileObject file = processingEnv.getFiler().createSourceFile(className, originatingElement);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + className + ": " + e, originatingElement);
+        }
+    }
+
+    private void note(TypeElement element, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "Not generating implementation for " + element.getQualifiedName() + " (" + reason + "); the proxy implementation will be used", element);
+    }
+}
@@ -0,0 +1,397 @@
+package ucles.weblab.common.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucles.weblab.common.domain.Buildable;
+import ucles.weblab.common.domain.BuildableType;
+import ucles.weblab.common.domain.BuilderProxyFactory;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compiles buildable interfaces with the processor and checks the generated classes, or the notes explaining why
+ * none were generated.
+ */
+public class BuildableProcessorTest {
+    private static final String SHAPE_SOURCE = "package com.example;\n"
+            + "public interface Shape extends ucles.weblab.common.domain.Buildable<Shape> {\n"
+            + "    String getName();\n"
+            + "    int getSides();\n"
+            + "    default boolean isRegular() {\n"
+            + "        return true;\n"
+            + "    }\n"
+            + "    default String describe() {\n"
+            + "        return getName();\n"
+            + "    }\n"
+            + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Shape> {\n"
+            + "        Builder name(String name);\n"
+            + "        Builder sides(int sides);\n"
+            + "        Builder regular(boolean regular);\n"
+            + "    }\n"
+            + "}\n";
+
+    private Path sourceDir;
+    private Path classDir;
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+    private ClassLoader classLoader;
+
+    @Before
+    public void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("buildable-src");
+        classDir = Files.createTempDirectory("buildable-classes");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(sourceDir);
+        delete(classDir);
+    }
+
+    @Test
+    public void shouldGeneratePrimitivePropertiesWithBoxedSetters() throws Exception {
+        compile("com.example.Counter",
+                "package com.example;\n"
+                        + "public interface Counter extends ucles.weblab.common.domain.Buildable<Counter> {\n"
+                        + "    int getCount();\n"
+                        + "    boolean isActive();\n"
+                        + "    double getRatio();\n"
+                        + "    char getInitial();\n"
+                        + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Counter> {\n"
+                        + "        Builder count(Integer count);\n"
+                        + "        Builder active(boolean active);\n"
+                        + "        Builder ratio(double ratio);\n"
+                        + "        Builder initial(Character initial);\n"
+                        + "    }\n"
+                        + "}\n");
+
+        final Object builder = newGeneratedBuilder("com.example.Built_Counter_Builder");
+        invoke(builder, "count", Integer.class, 3);
+        invoke(builder, "active", boolean.class, true);
+        invoke(builder, "ratio", double.class, 0.5);
+        final Object counter = invoke(builder, "get");
+        assertEquals("com.example.Built_Counter", counter.getClass().getName());
+        assertEquals(3, invoke(counter, "getCount"));
+        assertEquals(true, invoke(counter, "isActive"));
+        assertEquals(0.5, invoke(counter, "getRatio"));
+        assertEquals('\0', invoke(counter, "getInitial"));
+
+        invoke(builder, "count", Integer.class, null);
+        assertEquals("Null for a primitive property should be its default", 0, invoke(invoke(builder, "get"), "getCount"));
+    }
+
+    @Test
+    public void shouldDefaultOptionalPropertiesToEmpty() throws Exception {
+        compile("com.example.Person",
+                "package com.example;\n"
+                        + "public interface Person extends ucles.weblab.common.domain.Buildable<Person> {\n"
+                        + "    String getName();\n"
+                        + "    java.util.Optional<String> getNickname();\n"
+                        + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Person> {\n"
+                        + "        Builder name(String name);\n"
+                        + "        Builder nickname(java.util.Optional<String> nickname);\n"
+                        + "    }\n"
+                        + "}\n");
+
+        final Object builder = newGeneratedBuilder("com.example.Built_Person_Builder");
+        invoke(builder, "name", String.class, "Fred");
+        assertEquals(Optional.empty(), invoke(invoke(builder, "get"), "getNickname"));
+
+        invoke(builder, "nickname", Optional.class, Optional.of("Freddie"));
+        final Object person = invoke(builder, "get");
+        assertEquals("Fred", invoke(person, "getName"));
+        assertEquals(Optional.of("Freddie"), invoke(person, "getNickname"));
+    }
+
+    @Test
+    public void shouldOmitTypeAnnotationsFromGeneratedSource() throws Exception {
+        compile("com.example.Tagged",
+                "package com.example;\n"
+                        + "import java.lang.annotation.*;\n"
+                        + "public interface Tagged extends ucles.weblab.common.domain.Buildable<Tagged> {\n"
+                        + "    @Target(ElementType.TYPE_USE) @interface Nullable {}\n"
+                        + "    @Nullable String getName();\n"
+                        + "    java.util.List<@Nullable String> getTags();\n"
+                        + "    String @Nullable [] getAliases();\n"
+                        + "    java.util.Map.@Nullable Entry<String, ? extends @Nullable Number> getScore();\n"
+                        + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Tagged> {\n"
+                        + "        Builder name(@Nullable String name);\n"
+                        + "        Builder tags(java.util.List<@Nullable String> tags);\n"
+                        + "        Builder aliases(String @Nullable [] aliases);\n"
+                        + "        Builder score(java.util.Map.@Nullable Entry<String, ? extends @Nullable Number> score);\n"
+                        + "    }\n"
+                        + "}\n");
+
+        final Object builder = newGeneratedBuilder("com.example.Built_Tagged_Builder");
+        invoke(builder, "tags", List.class, Arrays.asList("a", null));
+        assertEquals(Arrays.asList("a", null), invoke(invoke(builder, "get"), "getTags"));
+    }
+
+    @Test
+    public void shouldNameGeneratedClassesAfterNestedInterfaces() throws Exception {
+        compile("com.example.Outer",
+                "package com.example;\n"
+                        + "public class Outer {\n"
+                        + "    public interface Inner extends ucles.weblab.common.domain.Buildable<Inner> {\n"
+                        + "        String getValue();\n"
+                        + "        interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Inner> {\n"
+                        + "            Builder value(String value);\n"
+                        + "        }\n"
+                        + "    }\n"
+                        + "}\n");
+
+        final Class<?> builderInterface = classLoader.loadClass("com.example.Outer$Inner$Builder");
+        final Class<?> buildableInterface = classLoader.loadClass("com.example.Outer$Inner");
+        final Object builder = newBuilder(builderInterface, buildableInterface);
+        assertEquals("The factory should find the generated builder", "com.example.Built_Outer_Inner_Builder", builder.getClass().getName());
+        invoke(builder, "value", String.class, "x");
+        assertEquals("com.example.Built_Outer_Inner", invoke(builder, "get").getClass().getName());
+    }
+
+    @Test
+    public void shouldTreatDefaultGettersAsPropertiesLikeTheProxy() throws Exception {
+        compile("com.example.Shape", SHAPE_SOURCE);
+
+        final Object builder = newGeneratedBuilder("com.example.Built_Shape_Builder");
+        invoke(builder, "name", String.class, "square");
+        assertEquals("An unset default getter should return the default value", false, invoke(invoke(builder, "get"), "isRegular"));
+        invoke(builder, "regular", boolean.class, true);
+        final Object shape = invoke(builder, "get");
+        assertEquals(true, invoke(shape, "isRegular"));
+        assertEquals("Default methods which are not getters should still run", "square", invoke(shape, "describe"));
+    }
+
+    @Test
+    public void shouldBeEqualToProxyWithSameValues() throws Exception {
+        compile("com.example.Shape", SHAPE_SOURCE);
+
+        final Object builder = newGeneratedBuilder("com.example.Built_Shape_Builder");
+        invoke(builder, "name", String.class, "square");
+        invoke(builder, "sides", int.class, 4);
+        invoke(builder, "regular", boolean.class, true);
+        final Object generated = invoke(builder, "get");
+        final Object proxy = newProxy(classLoader.loadClass("com.example.Shape"), "name", "square", "sides", 4, "regular", true);
+
+        assertEquals(generated, proxy);
+        assertEquals(proxy, generated);
+        assertEquals(generated.hashCode(), proxy.hashCode());
+
+        invoke(builder, "sides", int.class, 5);
+        final Object different = invoke(builder, "get");
+        assertNotEquals(different, proxy);
+        assertNotEquals(proxy, different);
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void shouldBuildAllWithGeneratedBuilder() throws Exception {
+        compile("com.example.Shape", SHAPE_SOURCE);
+        final Class builderInterface = classLoader.loadClass("com.example.Shape$Builder");
+        final Class buildableInterface = classLoader.loadClass("com.example.Shape");
+        final Method name = builderInterface.getMethod("name", String.class);
+        final Method sides = builderInterface.getMethod("sides", int.class);
+
+        final List<Object> shapes = new BuilderProxyFactory().buildAll(builderInterface, buildableInterface, Arrays.asList(3, 4),
+                (builder, row) -> {
+                    try {
+                        sides.invoke(builder, row);
+                        if ((Integer) row == 3) {
+                            name.invoke(builder, "polygon");
+                        }
+                    } catch (ReflectiveOperationException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+
+        assertEquals(2, shapes.size());
+        assertEquals("com.example.Built_Shape", shapes.get(0).getClass().getName());
+        assertEquals(3, invoke(shapes.get(0), "getSides"));
+        assertEquals(4, invoke(shapes.get(1), "getSides"));
+        assertEquals("Values not set again should carry over from the previous row", "polygon", invoke(shapes.get(1), "getName"));
+    }
+
+    @Test
+    public void shouldSkipWithNoteWhenMethodIsNotAGetter() throws Exception {
+        compile("com.example.Odd",
+                "package com.example;\n"
+                        + "public interface Odd extends ucles.weblab.common.domain.Buildable<Odd> {\n"
+                        + "    String name();\n"
+                        + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Odd> {\n"
+                        + "        Builder name(String name);\n"
+                        + "    }\n"
+                        + "}\n");
+
+        assertSkipped("com.example.Odd.Builder", "name is not a property getter");
+        assertNotGenerated("com.example.Built_Odd_Builder");
+        assertNotGenerated("com.example.Built_Odd");
+    }
+
+    @Test
+    public void shouldSkipWithNoteWhenPropertyTypeIsATypeVariable() throws Exception {
+        compile("com.example.Holder",
+                "package com.example;\n"
+                        + "public interface Holder extends ucles.weblab.common.domain.Buildable<Holder> {\n"
+                        + "    <X> X getThing();\n"
+                        + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Holder> {\n"
+                        + "        Builder thing(Object thing);\n"
+                        + "    }\n"
+                        + "}\n");
+
+        assertSkipped("com.example.Holder.Builder", "type of property thing cannot be written in source");
+        assertNotGenerated("com.example.Built_Holder_Builder");
+    }
+
+    @Test
+    public void shouldSkipWithNoteWhenSetterTypeIsIncompatible() throws Exception {
+        compile("com.example.Mismatch",
+                "package com.example;\n"
+                        + "public interface Mismatch extends ucles.weblab.common.domain.Buildable<Mismatch> {\n"
+                        + "    int getCount();\n"
+                        + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Mismatch> {\n"
+                        + "        Builder count(String count);\n"
+                        + "    }\n"
+                        + "}\n");
+
+        assertSkipped("com.example.Mismatch.Builder", "count parameter type is incompatible with the property type");
+        assertNotGenerated("com.example.Built_Mismatch_Builder");
+    }
+
+    @Test
+    public void shouldSkipWithNoteWhenSetterDoesNotReturnBuilder() throws Exception {
+        compile("com.example.Chain",
+                "package com.example;\n"
+                        + "public interface Chain extends ucles.weblab.common.domain.Buildable<Chain> {\n"
+                        + "    String getName();\n"
+                        + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Chain> {\n"
+                        + "        String name(String name);\n"
+                        + "    }\n"
+                        + "}\n");
+
+        assertSkipped("com.example.Chain.Builder", "name does not return the builder");
+        assertNotGenerated("com.example.Built_Chain_Builder");
+    }
+
+    @Test
+    public void shouldSkipWithNoteWhenBuildableIsGeneric() throws Exception {
+        compile("com.example.Box",
+                "package com.example;\n"
+                        + "public interface Box<V> extends ucles.weblab.common.domain.Buildable<Box<V>> {\n"
+                        + "    V getValue();\n"
+                        + "    interface Builder extends ucles.weblab.common.domain.Buildable.Builder<Box<String>> {\n"
+                        + "        Builder value(String value);\n"
+                        + "    }\n"
+                        + "}\n");
+
+        assertSkipped("com.example.Box.Builder", "Buildable type is not a simple interface");
+        assertNotGenerated("com.example.Built_Box_Builder");
+    }
+
+    private void compile(String className, String source) throws IOException {
+        final Path sourceFile = sourceDir.resolve(className.replace('.', File.separatorChar) + ".java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(collector, null, StandardCharsets.UTF_8)) {
+            final List<String> options = Arrays.asList("-classpath", System.getProperty("surefire.test.class.path", System.getProperty("java.class.path")),
+                    "-d", classDir.toString(), "-s", classDir.toString());
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, collector, options, null,
+                    fileManager.getJavaFileObjects(sourceFile.toFile()));
+            task.setProcessors(Collections.singletonList(new BuildableProcessor()));
+            final boolean success = task.call();
+            diagnostics.addAll(collector.getDiagnostics());
+            if (!success) {
+                fail("Compilation failed: " + diagnostics);
+            }
+        }
+        classLoader = new URLClassLoader(new URL[]{classDir.toUri().toURL()}, getClass().getClassLoader());
+    }
+
+    private void assertSkipped(String builderName, String reason) {
+        final String expected = "Not generating implementation for " + builderName + " (" + reason + ")";
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            if (diagnostic.getKind() == Diagnostic.Kind.NOTE && diagnostic.getMessage(null).startsWith(expected)) {
+                return;
+            }
+        }
+        fail("Expected note '" + expected + "' in " + diagnostics);
+    }
+
+    private void assertNotGenerated(String className) {
+        assertFalse(className + " should not have been generated",
+                Files.exists(classDir.resolve(className.replace('.', File.separatorChar) + ".java")));
+    }
+
+    private Object newGeneratedBuilder(String className) throws ReflectiveOperationException {
+        final Class<?> builderClass = classLoader.loadClass(className);
+        final Object builder = builderClass.getConstructor().newInstance();
+        assertTrue(builder instanceof Buildable.Builder);
+        return builder;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object newBuilder(Class<?> builderInterface, Class<?> buildableInterface) {
+        final Object builder = new BuilderProxyFactory().builder((Class) builderInterface, (Class) buildableInterface);
+        assertSame(builderInterface, builder.getClass().getInterfaces()[0]);
+        return builder;
+    }
+
+    /**
+     * Creates a built proxy directly, bypassing the factory which would use the generated builder.
+     */
+    private static Object newProxy(Class<?> buildableInterface, Object... namesAndValues) {
+        final BuildableType<?> buildableType = BuildableType.ofInterface(buildableInterface);
+        final Object[] values = new Object[buildableType.size()];
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            values[buildableType.slotOf((String) namesAndValues[i])] = namesAndValues[i + 1];
+        }
+        final Object proxy = buildableType.newInstance(values);
+        assertTrue(Proxy.isProxyClass(proxy.getClass()));
+        return proxy;
+    }
+
+    private static Object invoke(Object target, String methodName) throws ReflectiveOperationException {
+        final Method method = target.getClass().getMethod(methodName);
+        return method.invoke(target);
+    }
+
+    private static Object invoke(Object target, String methodName, Class<?> parameterType, Object argument) throws ReflectiveOperationException {
+        final Method method = target.getClass().getMethod(methodName, parameterType);
+        return method.invoke(target, argument);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -5,9 +5,18 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.actuate.health.AbstractHealthIndicator;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.Health.Builder;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.core.env.Environment;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.stream.Collectors.toList;
 import static org.springframework.boot.actuate.health.Status.UP;
@@ -18,8 +27,20 @@ import static org.springframework.boot.actuate.health.Status.UP;
  * startup a configuration variable is removed dynamically (e.g. when using Spring Cloud), then the heath check
  * will change from UP to DOWN.
  * To see details, the property management.endpoint.health.show-details must be set to 'when_authorized' or 'always'
+ * <p>
+ * The result is cached for a time to live, so that frequent polling of the health endpoint does not resolve every
+ * property each time. The cache is invalidated when Spring Cloud publishes an <code>EnvironmentChangeEvent</code> or
+ * <code>RefreshScopeRefreshedEvent</code>, or any other events set with {@link #setRefreshEvents(Collection)}, or by
+ * calling {@link #invalidate()}. A check which was already running when
+ * the cache was invalidated is not cached, as it may have read the environment from before the change.
  * */
-public class ConfigurationHealthCheck extends AbstractHealthIndicator {
+public class ConfigurationHealthCheck extends AbstractHealthIndicator implements ApplicationListener<ApplicationEvent> {
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofSeconds(10);
+
+    /** Spring Cloud events after which the environment may have changed, named to avoid depending on Spring Cloud. */
+    public static final Set<String> DEFAULT_REFRESH_EVENTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "org.springframework.cloud.context.environment.EnvironmentChangeEvent",
+            "org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent")));
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -28,10 +49,39 @@ public class ConfigurationHealthCheck extends AbstractHealthIndicator {
     /** e.g. ["spring.datasource.hikari.maximum-pool-size", "suppress.errors"] */
     private final List<String> requiredProperties;
 
+    private final long timeToLiveNanos;
+
+    /** Incremented on each invalidation, so that results of checks started before it are never reused. */
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile CachedHealth cachedHealth;
+
+    private volatile Set<String> refreshEvents = DEFAULT_REFRESH_EVENTS;
+
+    private static final class CachedHealth {
+        private final Health health;
+        private final long generation;
+        private final long expiresAt;
+
+        CachedHealth(Health health, long generation, long expiresAt) {
+            this.health = health;
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+        }
+    }
+
 
     public ConfigurationHealthCheck(Environment environment, List<String> requiredProperties) {
+        this(environment, requiredProperties, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param timeToLive how long to reuse the result of a check, or zero to check every time
+     */
+    public ConfigurationHealthCheck(Environment environment, List<String> requiredProperties, Duration timeToLive) {
         this.environment = environment;
         this.requiredProperties = requiredProperties;
+        this.timeToLiveNanos = timeToLive.toNanos();
 
         Builder bldr = new Builder();
         doHealthCheck(bldr);
@@ -43,8 +93,48 @@ public class ConfigurationHealthCheck extends AbstractHealthIndicator {
     }
 
 
+    /**
+     * Discards the cached result, so that the next health check resolves the properties again.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        cachedHealth = null;
+    }
+
+    /**
+     * Sets the events after which the cached result is discarded, in place of the {@link #DEFAULT_REFRESH_EVENTS}, e.g.
+     * to include an application's own event published when its configuration is reloaded.
+     *
+     * @param refreshEventClassNames the fully qualified class names of the events
+     */
+    public void setRefreshEvents(Collection<String> refreshEventClassNames) {
+        this.refreshEvents = Collections.unmodifiableSet(new HashSet<>(refreshEventClassNames));
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (refreshEvents.contains(event.getClass().getName())) {
+            invalidate();
+        }
+    }
+
     @Override
     final protected void doHealthCheck(Builder bldr) {
+        final long checkGeneration = generation.get();
+        final long now = System.nanoTime();
+        CachedHealth cached = cachedHealth;
+        if (cached == null || cached.generation != checkGeneration || now - cached.expiresAt >= 0) {
+            Builder checkBldr = new Builder();
+            checkConfiguration(checkBldr);
+            cached = new CachedHealth(checkBldr.build(), checkGeneration, now + timeToLiveNanos);
+            if (generation.get() == checkGeneration) {
+                cachedHealth = cached;
+            }
+        }
+        bldr.status(cached.health.getStatus()).withDetails(cached.health.getDetails());
+    }
+
+    private void checkConfiguration(Builder bldr) {
 
         List<String> missing = requiredProperties.stream()
                 .filter(key -> !environment.containsProperty(key))
@@ -0,0 +1,311 @@
+package ucles.weblab.common.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.PropertyName;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.Deserializers;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMethod;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Jackson module which writes proxy-implemented {@link Buildable} values straight from their property slots, and reads
+ * JSON objects into any {@link Buildable} interface without needing a builder interface or an implementation class.
+ * <p>
+ * Both directions use the properties Jackson finds on the buildable interface, so annotations on its getters such as
+ * <code>@JsonProperty</code>, <code>@JsonIgnore</code>, <code>@JsonInclude</code> and <code>@JsonView</code>, and
+ * the mapper's naming strategy and inclusion settings, apply as they would to any other bean. Serialization uses
+ * Jackson's own bean serializer, only replacing the reflective getter call with a read of the property slot.
+ * <p>
+ * Register with <code>objectMapper.registerModule(new BuildableModule())</code>, or in Spring Boot by declaring it as a
+ * bean. <code>Optional</code> properties need the Jackson JDK 8 module to be registered as well, as Spring Boot does.
+ * Values implemented by classes generated by <code>weblab-common-processor</code> are ordinary beans and are
+ * serialized by Jackson as usual.
+ *
+ * @since 18/10/26
+ */
+public class BuildableModule extends Module {
+    @Override
+    public String getModuleName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public Version version() {
+        return Version.unknownVersion();
+    }
+
+    @Override
+    public void setupModule(SetupContext context) {
+        context.addBeanSerializerModifier(new BeanSerializerModifier() {
+            @Override
+            public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDesc, List<BeanPropertyWriter> beanProperties) {
+                final Class<?> beanClass = beanDesc.getBeanClass();
+                if (!Proxy.isProxyClass(beanClass) || beanClass.getInterfaces().length != 1 || !Buildable.class.isAssignableFrom(beanClass)) {
+                    return beanProperties;
+                }
+                final BuildableType<?> buildableType = BuildableType.ofInterface(beanClass.getInterfaces()[0]);
+                final Map<String, Integer> slotsByGetterName = slotsByGetterName(buildableType);
+                final List<BeanPropertyWriter> writers = new ArrayList<>(beanProperties.size());
+                for (BeanPropertyWriter writer : beanProperties) {
+                    final Integer slot = writer.getMember() instanceof AnnotatedMethod ? slotsByGetterName.get(writer.getMember().getName()) : null;
+                    writers.add(slot == null ? writer : new SlotPropertyWriter(writer, buildableType, slot));
+                }
+                return writers;
+            }
+        });
+        context.addDeserializers(new Deserializers.Base() {
+            @Override
+            public JsonDeserializer<?> findBeanDeserializer(JavaType type, DeserializationConfig config, BeanDescription beanDesc) {
+                final Class<?> rawClass = type.getRawClass();
+                if (rawClass.isInterface() && rawClass != Buildable.class && Buildable.class.isAssignableFrom(rawClass)) {
+                    // Not cached here, as it is resolved against a specific mapper. Jackson caches it per mapper.
+                    return new BuildableDeserializer(BuildableType.ofInterface(rawClass), config, beanDesc);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Maps the name of each getter method to the slot it reads. Jackson properties are matched to slots by their
+     * getter, as Jackson's names may differ from the slot's property name through annotations or naming rules.
+     */
+    private static Map<String, Integer> slotsByGetterName(BuildableType<?> buildableType) {
+        final Map<String, Integer> slots = new HashMap<>();
+        for (Method method : buildableType.getType().getMethods()) {
+            final Integer slot = buildableType.getterSlot(method);
+            if (slot != null) {
+                slots.put(method.getName(), slot);
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Writes a property of a built proxy by reading its slot rather than invoking its getter through the proxy.
+     * Otherwise the property is written exactly as by the {@link BeanPropertyWriter} it replaces.
+     */
+    private static final class SlotPropertyWriter extends BeanPropertyWriter {
+        private static final long serialVersionUID = 1L;
+
+        private final transient BuildableType<?> buildableType;
+        private final int slot;
+
+        SlotPropertyWriter(BeanPropertyWriter base, BuildableType<?> buildableType, int slot) {
+            super(base);
+            this.buildableType = buildableType;
+            this.slot = slot;
+        }
+
+        private SlotPropertyWriter(SlotPropertyWriter base, PropertyName name) {
+            super(base, name);
+            this.buildableType = base.buildableType;
+            this.slot = base.slot;
+        }
+
+        @Override
+        protected BeanPropertyWriter _new(PropertyName newName) {
+            return new SlotPropertyWriter(this, newName);
+        }
+
+        @Override
+        public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider prov) throws Exception {
+            final Object value = buildableType.getValue((Buildable<?>) bean, slot);
+            if (value == null) {
+                if (_nullSerializer != null) {
+                    gen.writeFieldName(_name);
+                    _nullSerializer.serialize(null, gen, prov);
+                }
+                return;
+            }
+            final JsonSerializer<Object> serializer = valueSerializer(value, prov);
+            if (isSuppressed(value, serializer, prov) || value == bean && _handleSelfReference(bean, gen, prov, serializer)) { // NOPMD - identity check for cycles
+                return;
+            }
+            gen.writeFieldName(_name);
+            writeValue(value, serializer, gen, prov);
+        }
+
+        @Override
+        public void serializeAsElement(Object bean, JsonGenerator gen, SerializerProvider prov) throws Exception {
+            final Object value = buildableType.getValue((Buildable<?>) bean, slot);
+            if (value == null) {
+                if (_nullSerializer != null) {
+                    _nullSerializer.serialize(null, gen, prov);
+                } else {
+                    gen.writeNull();
+                }
+                return;
+            }
+            final JsonSerializer<Object> serializer = valueSerializer(value, prov);
+            if (isSuppressed(value, serializer, prov)) {
+                serializeAsPlaceholder(bean, gen, prov);
+                return;
+            }
+            if (value == bean && _handleSelfReference(bean, gen, prov, serializer)) { // NOPMD - identity check for cycles
+                return;
+            }
+            writeValue(value, serializer, gen, prov);
+        }
+
+        private JsonSerializer<Object> valueSerializer(Object value, SerializerProvider prov) throws JsonMappingException {
+            if (_serializer != null) {
+                return _serializer;
+            }
+            final JsonSerializer<Object> serializer = _dynamicSerializers.serializerFor(value.getClass());
+            return serializer == null ? _findAndAddDynamic(_dynamicSerializers, value.getClass(), prov) : serializer;
+        }
+
+        @SuppressWarnings("PMD.CompareObjectsWithEquals")
+        private boolean isSuppressed(Object value, JsonSerializer<Object> serializer, SerializerProvider prov) {
+            if (_suppressableValue == null) {
+                return false;
+            }
+            return _suppressableValue == MARKER_FOR_EMPTY ? serializer.isEmpty(prov, value) : _suppressableValue.equals(value);
+        }
+
+        private void writeValue(Object value, JsonSerializer<Object> serializer, JsonGenerator gen, SerializerProvider prov) throws IOException {
+            if (_typeSerializer == null) {
+                serializer.serialize(value, gen, prov);
+            } else {
+                serializer.serializeWithType(value, gen, prov, _typeSerializer);
+            }
+        }
+    }
+
+    /**
+     * Reads a JSON object directly into the property slots of a new built proxy. Property names, aliases, ignored
+     * properties and views are taken from the properties Jackson finds on the buildable interface.
+     */
+    private static final class BuildableDeserializer extends StdDeserializer<Object> implements ResolvableDeserializer {
+        private final BuildableType<?> buildableType;
+        private final Map<String, Integer> slotsByJsonName = new HashMap<>();
+        private final BeanPropertyDefinition[] properties;
+        private final Class<?>[][] views;
+        private final Set<String> ignoredNames;
+        private final boolean ignoreUnknown;
+        private final JsonDeserializer<Object>[] valueDeserializers;
+
+        @SuppressWarnings("unchecked")
+        BuildableDeserializer(BuildableType<?> buildableType, DeserializationConfig config, BeanDescription beanDesc) {
+            super(buildableType.getType());
+            this.buildableType = buildableType;
+            this.properties = new BeanPropertyDefinition[buildableType.size()];
+            this.views = new Class<?>[buildableType.size()][];
+            this.valueDeserializers = new JsonDeserializer[buildableType.size()];
+
+            final Map<String, Integer> slotsByGetterName = slotsByGetterName(buildableType);
+            for (BeanPropertyDefinition property : beanDesc.findProperties()) {
+                final Integer slot = property.hasGetter() ? slotsByGetterName.get(property.getGetter().getName()) : null;
+                if (slot != null) {
+                    properties[slot] = property;
+                    views[slot] = config.getAnnotationIntrospector().findViews(property.getAccessor());
+                    slotsByJsonName.put(property.getName(), slot);
+                    final List<PropertyName> aliases = config.getAnnotationIntrospector().findPropertyAliases(property.getAccessor());
+                    if (aliases != null) {
+                        for (PropertyName alias : aliases) {
+                            slotsByJsonName.putIfAbsent(alias.getSimpleName(), slot);
+                        }
+                    }
+                }
+            }
+
+            final JsonIgnoreProperties.Value ignorals = config.getDefaultPropertyIgnorals(beanDesc.getBeanClass(), beanDesc.getClassInfo());
+            this.ignoredNames = new HashSet<>(beanDesc.getIgnoredPropertyNames());
+            this.ignoredNames.addAll(ignorals.findIgnoredForDeserialization());
+            this.ignoreUnknown = ignorals.getIgnoreUnknown();
+        }
+
+        @Override
+        public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+            for (int i = 0; i < valueDeserializers.length; i++) {
+                final BeanPropertyDefinition property = properties[i];
+                if (property != null) {
+                    final BeanProperty beanProperty = new BeanProperty.Std(property.getFullName(), property.getPrimaryType(), property.getWrapperName(),
+                            property.getAccessor(), property.getMetadata());
+                    valueDeserializers[i] = ctxt.findContextualValueDeserializer(property.getPrimaryType(), beanProperty);
+                }
+            }
+        }
+
+        @Override
+        public boolean isCachable() {
+            return true;
+        }
+
+        @Override
+        public Object deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            JsonToken token = p.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = p.nextToken();
+            } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+                return ctxt.handleUnexpectedToken(handledType(), p);
+            }
+
+            final Class<?> activeView = ctxt.getActiveView();
+            final Object[] values = buildableType.newValues();
+            for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                final String propertyName = p.getCurrentName();
+                final JsonToken valueToken = p.nextToken();
+                final Integer slot = slotsByJsonName.get(propertyName);
+                if (slot == null) {
+                    if (ignoreUnknown || ignoredNames.contains(propertyName)) {
+                        p.skipChildren();
+                    } else {
+                        handleUnknownProperty(p, ctxt, handledType(), propertyName);
+                    }
+                    continue;
+                }
+                if (activeView != null && !isInView(activeView, views[slot], ctxt)) {
+                    p.skipChildren();
+                    continue;
+                }
+                final JsonDeserializer<Object> valueDeserializer = valueDeserializers[slot];
+                final Object value = valueToken == JsonToken.VALUE_NULL ? valueDeserializer.getNullValue(ctxt) : valueDeserializer.deserialize(p, ctxt);
+                values[slot] = buildableType.toSlotValue(slot, value);
+            }
+            return buildableType.wrap(values);
+        }
+
+        private static boolean isInView(Class<?> activeView, Class<?>[] propertyViews, DeserializationContext ctxt) {
+            if (propertyViews == null) {
+                return ctxt.isEnabled(MapperFeature.DEFAULT_VIEW_INCLUSION);
+            }
+            for (Class<?> view : propertyViews) {
+                if (view.isAssignableFrom(activeView)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
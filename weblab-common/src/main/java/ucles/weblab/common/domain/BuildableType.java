@@ -0,0 +1,285 @@
+package ucles.weblab.common.domain;
+
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Property layout of a {@link Buildable} interface, analysed once per interface and shared by all the
+ * {@link BuilderProxy builder} and {@link BuiltProxy built} proxies for it.
+ * Each property is assigned a slot index, and proxies store property values in an <code>Object[]</code> indexed by slot,
+ * so that dispatching a getter or setter is a single table lookup followed by an array access.
+ * <p>
+ * The public methods allow integrations such as serializers to read and create buildable values by slot without
+ * needing a builder interface.
+ *
+ * @since 18/10/26
+ */
+public final class BuildableType<T extends Buildable<T>> {
+    private static final ClassValue<BuildableType<?>> TYPES = new ClassValue<BuildableType<?>>() {
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        protected BuildableType<?> computeValue(Class<?> type) {
+            return new BuildableType(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final String[] propertyNames;
+    private final Class<?>[] propertyTypes;
+    private final Method[] propertyGetters;
+    /**
+     * Value returned for each slot when it has not been set, pre-boxed for primitive properties.
+     */
+    private final Object[] defaultValues;
+    private final Map<String, Integer> slotsByName;
+    private final Map<Method, Integer> getterSlots;
+    private final Map<Class<?>, Map<Method, Integer>> setterSlotsByBuilder = new ConcurrentHashMap<>();
+
+    private BuildableType(Class<T> type) {
+        this.type = type;
+        final Map<String, Method> properties = new LinkedHashMap<>();
+        final Map<Method, String> getters = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            final String propertyName = propertyName(method);
+            if (propertyName != null) {
+                properties.putIfAbsent(propertyName, method);
+                getters.put(method, propertyName);
+            }
+        }
+
+        this.propertyNames = properties.keySet().toArray(new String[0]);
+        this.propertyGetters = properties.values().toArray(new Method[0]);
+        this.propertyTypes = new Class<?>[propertyGetters.length];
+        for (int i = 0; i < propertyGetters.length; i++) {
+            propertyTypes[i] = propertyGetters[i].getReturnType();
+        }
+        this.defaultValues = new Object[propertyTypes.length];
+        for (int i = 0; i < propertyTypes.length; i++) {
+            if (propertyTypes[i] == Optional.class) {
+                defaultValues[i] = Optional.empty();
+            } else if (propertyTypes[i].isPrimitive()) {
+                defaultValues[i] = BuiltProxy.defaultValue(propertyTypes[i]);
+            }
+        }
+        this.slotsByName = new HashMap<>();
+        for (int i = 0; i < propertyNames.length; i++) {
+            slotsByName.put(propertyNames[i], i);
+        }
+        this.getterSlots = new HashMap<>();
+        getters.forEach((method, propertyName) -> getterSlots.put(method, slotsByName.get(propertyName)));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends Buildable<T>> BuildableType<T> of(Class<T> type) {
+        return (BuildableType<T>) TYPES.get(type);
+    }
+
+    /**
+     * Returns the property layout for an interface known only at runtime to be a buildable interface.
+     *
+     * @param type the buildable interface
+     * @return the property layout
+     * @throws IllegalArgumentException if the type is not an interface extending {@link Buildable}
+     */
+    public static BuildableType<?> ofInterface(Class<?> type) {
+        if (!type.isInterface() || type == Buildable.class || !Buildable.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException("Not a buildable interface: " + type.getName());
+        }
+        return TYPES.get(type);
+    }
+
+    /**
+     * Returns the property layout for the buildable interface implemented by a value, which may be a built proxy or
+     * an instance of any other implementation class.
+     *
+     * @param value the buildable value
+     * @return the property layout
+     * @throws IllegalArgumentException if the value does not implement an interface extending {@link Buildable}
+     */
+    public static BuildableType<?> ofValue(Buildable<?> value) {
+        for (Class<?> candidate = value.getClass(); candidate != null; candidate = candidate.getSuperclass()) {
+            for (Class<?> implemented : candidate.getInterfaces()) {
+                if (implemented != Buildable.class && Buildable.class.isAssignableFrom(implemented)) {
+                    return TYPES.get(implemented);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Not a buildable value: " + value.getClass().getName());
+    }
+
+    /**
+     * Returns the property name for a getter method, following the same conventions as the previous
+     * bean property based implementation, or <code>null</code> if the method is not a getter.
+     */
+    private static String propertyName(Method method) {
+        if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0) {
+            return null;
+        }
+        final String name = method.getName();
+        if (name.startsWith("get") && name.length() > 3) {
+            return StringUtils.uncapitalize(name.substring(3));
+        } else if (name.startsWith("is") && name.length() > 2 && (method.getReturnType() == Boolean.TYPE || method.getReturnType() == Boolean.class)) {
+            return StringUtils.uncapitalize(name.substring(2));
+        }
+        return null;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the number of properties, each of which has a slot numbered from zero.
+     */
+    public int size() {
+        return propertyNames.length;
+    }
+
+    public String propertyName(int slot) {
+        return propertyNames[slot];
+    }
+
+    Class<?> propertyType(int slot) {
+        return propertyTypes[slot];
+    }
+
+    /**
+     * Returns a getter for the property in a slot, from which its generic type can be found.
+     */
+    public Method propertyGetter(int slot) {
+        return propertyGetters[slot];
+    }
+
+    /**
+     * Returns the slot for a property name, or <code>-1</code> if there is no such property.
+     */
+    public int slotOf(String propertyName) {
+        return slotsByName.getOrDefault(propertyName, -1);
+    }
+
+    /**
+     * Returns the slot read by a getter method of the buildable interface, or <code>null</code> if the method is not a getter.
+     */
+    Integer getterSlot(Method method) {
+        return getterSlots.get(method);
+    }
+
+    /**
+     * Returns the slots written by each setter method of a builder interface. Setters for properties which have no
+     * getter on the buildable interface map to <code>-1</code>, as their values can never be read.
+     */
+    Map<Method, Integer> setterSlots(Class<?> builderClass) {
+        return setterSlotsByBuilder.computeIfAbsent(builderClass, builder -> {
+            final Map<Method, Integer> setters = new HashMap<>();
+            for (Method method : builder.getMethods()) {
+                if (!Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 1) {
+                    setters.put(method, slotsByName.getOrDefault(method.getName(), -1));
+                }
+            }
+            return setters;
+        });
+    }
+
+    /**
+     * Returns a new array of property values with each slot holding its default value.
+     */
+    Object[] newValues() {
+        return defaultValues.clone();
+    }
+
+    /**
+     * Converts a value to be stored in a slot, so that it can be returned unchanged by the getter.
+     * Nulls are replaced with the slot's default value, and numbers for primitive properties are converted once to
+     * the getter's wrapper type (e.g. an <code>Integer</code> passed to a builder for a <code>long</code> getter).
+     */
+    Object toSlotValue(int slot, Object value) {
+        if (value == null) {
+            return defaultValues[slot];
+        }
+        final Class<?> propertyType = propertyTypes[slot];
+        if (propertyType.isPrimitive() && value instanceof Number) {
+            return toPrimitiveWrapper(propertyType, (Number) value);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("PMD.CyclomaticComplexity")
+    private static Object toPrimitiveWrapper(Class<?> primitiveType, Number value) {
+        if (primitiveType == Integer.TYPE) {
+            return value instanceof Integer ? value : Integer.valueOf(value.intValue());
+        } else if (primitiveType == Long.TYPE) {
+            return value instanceof Long ? value : Long.valueOf(value.longValue());
+        } else if (primitiveType == Double.TYPE) {
+            return value instanceof Double ? value : Double.valueOf(value.doubleValue());
+        } else if (primitiveType == Float.TYPE) {
+            return value instanceof Float ? value : Float.valueOf(value.floatValue());
+        } else if (primitiveType == Short.TYPE) {
+            return value instanceof Short ? value : Short.valueOf(value.shortValue());
+        } else if (primitiveType == Byte.TYPE) {
+            return value instanceof Byte ? value : Byte.valueOf(value.byteValue());
+        }
+        return value;
+    }
+
+    /**
+     * Creates a new immutable instance backed by the given values, which must have been converted by
+     * {@link #toSlotValue(int, Object)} and must not be modified afterwards.
+     */
+    T wrap(Object[] values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new BuiltProxy<>(this, values)));
+    }
+
+    /**
+     * Creates a new immutable instance with the given property values.
+     *
+     * @param values the property values indexed by slot, which will be copied; missing or null values take the default
+     *               for the property type
+     * @return the new instance
+     */
+    public T newInstance(Object... values) {
+        final Object[] slotValues = newValues();
+        for (int i = 0; i < values.length && i < slotValues.length; i++) {
+            slotValues[i] = toSlotValue(i, values[i]);
+        }
+        return wrap(slotValues);
+    }
+
+    /**
+     * Reads a property value from a buildable value, directly from its slot if it is a built proxy and otherwise
+     * by calling its getter.
+     *
+     * @param value the buildable value, which must implement this interface
+     * @param slot  the property slot
+     * @return the property value
+     */
+    public Object getValue(Buildable<?> value, int slot) {
+        if (Proxy.isProxyClass(value.getClass())) {
+            final InvocationHandler handler = Proxy.getInvocationHandler(value);
+            if (handler instanceof BuiltProxy && ((BuiltProxy<?>) handler).getBuildableType() == this) {
+                return ((BuiltProxy<?>) handler).getValue(slot);
+            }
+        }
+        return ReflectionUtils.invokeMethod(propertyGetters[slot], type.cast(value));
+    }
+
+    @Override
+    public String toString() {
+        final List<String> properties = new ArrayList<>(propertyNames.length);
+        for (int i = 0; i < propertyNames.length; i++) {
+            properties.add(propertyNames[i] + ':' + propertyTypes[i].getSimpleName());
+        }
+        return type.getName() + properties;
+    }
+}
@@ -1,13 +1,8 @@
 package ucles.weblab.common.domain;
 
-import org.apache.commons.beanutils.BeanUtils;
-import org.apache.commons.beanutils.DynaBean;
-import org.apache.commons.beanutils.LazyDynaBean;
-import org.apache.commons.beanutils.PropertyUtils;
-
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.util.Map;
 
 /**
  * Proxy to allow builders for buildable interfaces to themselves be specified as an interface only.
@@ -17,28 +12,40 @@ import java.lang.reflect.Proxy;
  */
 public class BuilderProxy<T extends Buildable<T>> implements InvocationHandler {
     /**
-     * Template DTO updated by the builder as interface methods are called.
+     * Property layout of the final output interface.
+     */
+    private final BuildableType<T> buildableType;
+    /**
+     * Slot written by each setter on the builder interface.
+     */
+    private final Map<Method, Integer> setterSlots;
+    /**
+     * Template property values updated by the builder as interface methods are called, indexed by slot.
      */
-    private final DynaBean workInProgress;
+    private Object[] workInProgress;
     /**
-     * Final output interface.
+     * Whether {@link #workInProgress} is also backing an instance returned from <code>get()</code>, and so must be
+     * copied before it is next modified.
      */
-    private final Class<T> buildable;
+    private boolean shared;
 
     /**
      * Private constructor as this class's status as an invocation handler is not for public exposure.
      *
+     * @param builder   the builder interface being implemented
      * @param buildable the interface to be built
      */
-    BuilderProxy(final Class<T> buildable) {
-        this.buildable = buildable;
-        this.workInProgress = new LazyDynaBean();
+    BuilderProxy(final Class<?> builder, final Class<T> buildable) {
+        this.buildableType = BuildableType.of(buildable);
+        this.setterSlots = buildableType.setterSlots(builder);
+        this.workInProgress = buildableType.newValues();
     }
 
     /**
      * Handles all calls to the builder interface. Calls to {@link Buildable.Builder#get()}
-     * are handled by returning a clone of the work-in-progress bean. All other calls are handled by setting
-     * the property value of the same name on the bean.
+     * are handled by returning an immutable snapshot which shares the work-in-progress values with the builder.
+     * All other calls are handled by setting the property value of the same name, copying the values first if they
+     * are shared with a snapshot, so repeated calls to <code>get()</code> without intervening changes copy nothing.
      *
      * @param proxy  {@inheritDoc}
      * @param method {@inheritDoc}
@@ -48,13 +55,29 @@ public class BuilderProxy<T extends Buildable<T>> implements InvocationHandler {
      */
     @Override
     public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
-        if (method.getName().equals("get")) {
-            assert args == null || args.length == 0;
-            return Proxy.newProxyInstance(BuiltProxy.class.getClassLoader(), new Class[]{buildable}, new BuiltProxy<T>((DynaBean) BeanUtils.cloneBean(workInProgress)));
-        } else {
+        final Integer slot = setterSlots.get(method);
+        if (slot != null) {
             assert args.length == 1;
-            PropertyUtils.setProperty(workInProgress, method.getName(), args[0]);
+            if (slot >= 0) {
+                if (shared) {
+                    workInProgress = workInProgress.clone();
+                    shared = false;
+                }
+                workInProgress[slot] = buildableType.toSlotValue(slot, args[0]);
+            }
             return proxy;
+        } else if (method.getName().equals("get")) {
+            assert args == null || args.length == 0;
+            shared = true;
+            return buildableType.wrap(workInProgress);
+        } else if (method.getName().equals("equals")) {
+            return proxy == args[0];
+        } else if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (method.getName().equals("toString")) {
+            return "[BuilderProxy: " + buildableType.getType().getName() + ']';
+        } else {
+            throw new NoSuchMethodException(method.getName());
         }
     }
 
@@ -1,13 +1,71 @@
 package ucles.weblab.common.domain;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Collector;
 
 /**
  * Factory for creating builders for {@link Buildable} interfaces from {@link Buildable.Builder Builders}.
+ * <p>
+ * If the <code>weblab-common-processor</code> annotation processor was run over the builder interface, the
+ * generated builder implementation is used. Otherwise the builder is implemented by {@link BuilderProxy}.
+ * <p>
+ * Values built either way have the same properties, including any declared by default getter methods, which return
+ * the value set on the builder rather than running the default method. Equal property values give equal values with
+ * equal hash codes whichever implementation built them. They differ in that:
+ * <ul>
+ * <li><code>toString</code> formats differ, and may list the properties in a different order;</li>
+ * <li>default builder methods taking one argument are run by generated builders, but are treated as setters for the
+ * property of the same name by the proxy;</li>
+ * <li>calling a default method of the buildable interface which is not a getter runs it on a generated value, but
+ * fails on a proxy.</li>
+ * </ul>
  *
  * @since 08/05/15
  */
 public class BuilderProxyFactory {
+    /**
+     * Prefix of builder classes generated by <code>ucles.weblab.common.processor.BuildableProcessor</code>,
+     * which must be kept in step with it.
+     */
+    static final String GENERATED_PREFIX = "Built_";
+
+    private static final ClassValue<Optional<Constructor<?>>> GENERATED_BUILDERS = new ClassValue<Optional<Constructor<?>>>() {
+        @Override
+        protected Optional<Constructor<?>> computeValue(Class<?> builderClass) {
+            final String packageName = builderClass.getPackage() == null ? "" : builderClass.getPackage().getName();
+            final String flatName = builderClass.getName().substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('$', '_');
+            final String generatedName = (packageName.isEmpty() ? "" : packageName + '.') + GENERATED_PREFIX + flatName;
+            try {
+                final Class<?> generatedClass = Class.forName(generatedName, true, builderClass.getClassLoader());
+                if (!builderClass.isAssignableFrom(generatedClass)) {
+                    return Optional.empty();
+                }
+                return Optional.of(generatedClass.getConstructor());
+            } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+                return Optional.empty();
+            }
+        }
+    };
+
+    /**
+     * Canonical instances returned by {@link #intern(Buildable)}, each mapped to itself. These are shared by all
+     * factories, and weakly referenced so that entries are discarded once a value is no longer used elsewhere.
+     */
+    private static final ConcurrentMap<InternedKey, InternedKey> INTERNED = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Object> INTERNED_QUEUE = new ReferenceQueue<>();
+
     /**
      * Creates a new proxy which allows a buildable to built using a fluent interface.
      * The interface must define methods corresponding to property names on the buildable.
@@ -16,12 +74,156 @@ public class BuilderProxyFactory {
      * @param buildableClass the bean interface class
      * @param <T>            the data transfer object type to be built
      * @param <I>            the builder interface definition which must extend {@link Buildable.Builder}
-     * @return a proxy object implementing the builder fluent interface to allow new objects to be created using method chaining
+     * @return a builder implementing the builder fluent interface to allow new objects to be created using method chaining
      */
     @SuppressWarnings("unchecked")
     public <T extends Buildable<T>, I extends Buildable.Builder<T>> I builder(Class<I> builderClass, Class<T> buildableClass) {
-        return (I) Proxy.newProxyInstance(BuilderProxy.class.getClassLoader(),
+        final Optional<Constructor<?>> generated = GENERATED_BUILDERS.get(builderClass);
+        if (generated.isPresent()) {
+            try {
+                return (I) generated.get().newInstance();
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Could not create generated builder for " + builderClass.getName(), e);
+            }
+        }
+        return (I) Proxy.newProxyInstance(builderClass.getClassLoader(),
                 new Class[]{builderClass},
-                new BuilderProxy<T>(buildableClass));
+                new BuilderProxy<T>(builderClass, buildableClass));
+    }
+
+    /**
+     * Builds one buildable per row using a single builder. Property values set for one row carry over to the next
+     * unless the populator sets them again, as when reusing a builder by hand.
+     *
+     * @param builderClass   the builder fluent interface class
+     * @param buildableClass the bean interface class
+     * @param rows           the source rows
+     * @param populator      sets the properties for a row on the builder
+     * @param <T>            the data transfer object type to be built
+     * @param <I>            the builder interface definition which must extend {@link Buildable.Builder}
+     * @param <R>            the source row type
+     * @return the built objects, in the order of the rows
+     */
+    public <T extends Buildable<T>, I extends Buildable.Builder<T>, R> List<T> buildAll(Class<I> builderClass, Class<T> buildableClass,
+                                                                                       Iterable<R> rows, BiConsumer<? super I, ? super R> populator) {
+        final I builder = builder(builderClass, buildableClass);
+        final List<T> built = rows instanceof Collection ? new ArrayList<>(((Collection<?>) rows).size()) : new ArrayList<>();
+        for (R row : rows) {
+            populator.accept(builder, row);
+            built.add(builder.get());
+        }
+        return built;
+    }
+
+    /**
+     * Returns a collector which builds one buildable per stream element, reusing a builder for each sequence of elements
+     * accumulated together. In a parallel stream each thread accumulates into its own builder, so this can be used
+     * with <code>rows.parallelStream()</code> for large inputs. As with {@link #buildAll}, property values carry over
+     * from one element to the next unless the populator sets them again.
+     *
+     * @param builderClass   the builder fluent interface class
+     * @param buildableClass the bean interface class
+     * @param populator      sets the properties for a row on the builder
+     * @param <T>            the data transfer object type to be built
+     * @param <I>            the builder interface definition which must extend {@link Buildable.Builder}
+     * @param <R>            the source row type
+     * @return the collector, whose result is in encounter order
+     */
+    public <T extends Buildable<T>, I extends Buildable.Builder<T>, R> Collector<R, ?, List<T>> toBuilt(Class<I> builderClass, Class<T> buildableClass,
+                                                                                                      BiConsumer<? super I, ? super R> populator) {
+        return Collector.of(
+                () -> new BatchBuilder<T, I>(builder(builderClass, buildableClass)),
+                (batch, row) -> {
+                    populator.accept(batch.builder, row);
+                    batch.built.add(batch.builder.get());
+                },
+                (left, right) -> {
+                    left.built.addAll(right.built);
+                    return left;
+                },
+                batch -> batch.built);
+    }
+
+    /**
+     * Returns a canonical instance equal to the given value, so that frequently repeated values such as reference
+     * data can share one instance on the heap. The first value interned becomes the canonical instance for all equal
+     * values, until it is no longer referenced anywhere else and is garbage collected.
+     * This relies on the value implementing <code>equals</code> and <code>hashCode</code> by content, as both built
+     * proxies and generated implementations do.
+     * <p>
+     * The canonical instances are held in one concurrent table shared by all factories, so values interned through
+     * different factories are also shared, and interning from many threads does not contend on a lock.
+     *
+     * @param value the value to intern
+     * @param <T>   the data transfer object type
+     * @return the canonical instance equal to the value, or <code>null</code> if the value is null
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Buildable<T>> T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        expungeInterned();
+        final InternedKey key = new InternedKey(value, INTERNED_QUEUE);
+        while (true) {
+            final InternedKey existingKey = INTERNED.putIfAbsent(key, key);
+            if (existingKey == null) {
+                return value;
+            }
+            final Object existing = existingKey.get();
+            if (existing != null) {
+                return (T) existing;
+            }
+            INTERNED.remove(existingKey, existingKey); // Collected since the lookup, so try again
+        }
+    }
+
+    private static void expungeInterned() {
+        for (Reference<?> cleared = INTERNED_QUEUE.poll(); cleared != null; cleared = INTERNED_QUEUE.poll()) {
+            INTERNED.remove(cleared, cleared);
+        }
+    }
+
+    /**
+     * Weak reference to an interned value which compares equal to another key whose value is equal. Once its value
+     * has been collected, a key is only equal to itself, so that it can still be removed.
+     */
+    private static final class InternedKey extends WeakReference<Object> {
+        private final int hash;
+
+        InternedKey(Object value, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        @SuppressWarnings("PMD.CompareObjectsWithEquals")
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof InternedKey) || hash != ((InternedKey) o).hash) {
+                return false;
+            }
+            final Object value = get();
+            return value != null && value.equals(((InternedKey) o).get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Mutable accumulation state for {@link #toBuilt}.
+     */
+    private static final class BatchBuilder<T extends Buildable<T>, I extends Buildable.Builder<T>> {
+        private final I builder;
+        private final List<T> built = new ArrayList<>();
+
+        BatchBuilder(I builder) {
+            this.builder = builder;
+        }
     }
 }
@@ -1,22 +1,19 @@
 package ucles.weblab.common.domain;
 
-import org.apache.commons.beanutils.DynaBean;
-import org.apache.commons.beanutils.DynaClass;
-import org.apache.commons.beanutils.DynaProperty;
-import org.apache.commons.beanutils.PropertyUtils;
-import org.springframework.util.StringUtils;
-
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Objects;
 
 import static java.util.Collections.unmodifiableMap;
 
 /**
- * Proxy to implement immutable buildable instances without a concrete implementation, using a backing {@link org.apache.commons.beanutils.DynaBean}.
+ * Proxy to implement immutable buildable instances without a concrete implementation, using a backing array of
+ * property values laid out by {@link BuildableType}.
  *
  * @since 27/08/2013
  */
@@ -45,45 +42,39 @@ public class BuiltProxy<T extends Buildable<T>> implements InvocationHandler {
         }
     });
 
-    private final DynaBean backingBean;
+    private final BuildableType<T> buildableType;
+    private final Object[] values;
+    /**
+     * Cached hash code, computed on first use as the values are immutable (zero if not yet computed).
+     */
+    private int hash;
+
+    BuiltProxy(BuildableType<T> buildableType, Object[] values) {
+        this.buildableType = buildableType;
+        this.values = values;
+    }
 
-    BuiltProxy(DynaBean backingBean) {
-        this.backingBean = backingBean;
+    BuildableType<T> getBuildableType() {
+        return buildableType;
+    }
+
+    Object getValue(int slot) {
+        return values[slot];
     }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        if (method.getName().startsWith("get")) {
+        final Integer slot = buildableType.getterSlot(method);
+        if (slot != null) {
             assert args == null || args.length == 0;
-            final Object propertyValue = PropertyUtils.getProperty(backingBean, StringUtils.uncapitalize(method.getName().substring(3)));
-            if (propertyValue == null) {
-                if (method.getReturnType() == Optional.class) {
-                    return Optional.empty();
-                } else if (method.getReturnType().isPrimitive()) {
-                    return defaultValue(method.getReturnType());
-                }
-            }
-            return propertyValue;
-        } else if (method.getName().startsWith("is") && (method.getReturnType() == Boolean.TYPE || method.getReturnType() == Boolean.class)) {
-            assert args == null || args.length == 0;
-            final Object propertyValue = PropertyUtils.getProperty(backingBean, StringUtils.uncapitalize(method.getName().substring(2)));
-            if (propertyValue == null && method.getReturnType() == Boolean.TYPE) {
-                return defaultValue(Boolean.TYPE);
-            }
-            return propertyValue;
+            // Values were converted to the getter's type when set, so there are no null checks or boxing here.
+            return values[slot];
         } else if (method.getName().equals("toString")) {
             assert args == null || args.length == 0;
             return toString();
         } else if (method.getName().equals("equals")) {
             assert args.length == 1;
-            if (args[0] == this) {
-                return true;
-            }
-            if (!(args[0] instanceof BuiltProxy)) {
-                return false;
-            }
-            BuiltProxy<?> oBean = (BuiltProxy<?>) args[0];
-            return dynaBeanEquals(this.backingBean, oBean.backingBean);
+            return args[0] == proxy || valueEquals(args[0]);
         } else if (method.getName().equals("hashCode")) {
             assert args == null || args.length == 0;
             return hashCode();
@@ -93,63 +84,55 @@ public class BuiltProxy<T extends Buildable<T>> implements InvocationHandler {
 
     }
 
-    // Below methods copied from http://www.javaranch.com/journal/2004/04/files/DynaDTODynaBean.java
-
+    /**
+     * Compares the values of this proxy with those of another value for the same interface, which may be another
+     * built proxy or another implementation such as one generated by <code>weblab-common-processor</code>.
+     */
     @SuppressWarnings("PMD.CompareObjectsWithEquals")
-    private boolean dynaBeanEquals(DynaBean bean1, DynaBean bean2) {
-        if (bean1 == bean2) {
-            return true;
-        }
-        if (bean1 == null || bean2 == null) {
-            return false;
+    private boolean valueEquals(Object other) {
+        if (other != null && Proxy.isProxyClass(other.getClass())) {
+            final InvocationHandler otherHandler = Proxy.getInvocationHandler(other);
+            if (otherHandler instanceof BuiltProxy) {
+                final BuiltProxy<?> oBean = (BuiltProxy<?>) otherHandler;
+                return buildableType == oBean.buildableType
+                        && (values == oBean.values || hashCode() == oBean.hashCode() && Arrays.equals(values, oBean.values));
+            }
         }
-        DynaClass dynaClass1 = bean1.getDynaClass();
-        DynaProperty[] props1 = dynaClass1.getDynaProperties();
-        if (props1.length != bean2.getDynaClass().getDynaProperties().length) {
+        if (!buildableType.getType().isInstance(other) || BuildableType.ofValue((Buildable<?>) other) != buildableType
+                || hashCode() != other.hashCode()) {
             return false;
         }
-        boolean isEqual = true;
-        for (int i = 0; i < props1.length && isEqual; i++) {
-            DynaProperty prop1 = props1[i];
-            DynaProperty prop2 = bean2.getDynaClass().getDynaProperty(prop1.getName());
-            isEqual = dynaPropertyEquals(prop1,
-                    prop2,
-                    bean1.get(prop1.getName()),
-                    bean2.get(prop2.getName()));
+        for (int i = 0; i < values.length; i++) {
+            if (!Objects.equals(values[i], buildableType.getValue((Buildable<?>) other, i))) {
+                return false;
+            }
         }
-        return isEqual;
-    }
-
-    @SuppressWarnings("PMD.CompareObjectsWithEquals")
-    private boolean dynaPropertyEquals(DynaProperty prop1,
-                                       DynaProperty prop2,
-                                       Object value1,
-                                       Object value2) {
-        return prop1 == prop2 ||
-                prop1 != null && prop2 != null && prop1.getName().equals(prop2.getName()) && prop1.getType().equals(prop2.getType()) && valueEquals(value1, value2);
-    }
-
-    @SuppressWarnings("PMD.CompareObjectsWithEquals")
-    private boolean valueEquals(Object value1, Object value2) {
-        return value1 == value2 || value1 != null && value1.equals(value2);
+        return true;
     }
 
     /**
-     * Returns a hash code value for the object.
+     * Returns a hash code value for the object, which is computed once and then cached.
      *
      * @return a hash code value for this object.
      */
     @Override
     public int hashCode() {
-        int result = 17;
-        DynaProperty[] props = backingBean.getDynaClass().getDynaProperties();
-        for (DynaProperty prop : props) {
-            int propHashCode = prop.getName().hashCode() ^
-                    prop.getType().hashCode();
-            Object propVal = backingBean.get(prop.getName());
-            int valHashCode = propVal == null ? 0 : propVal.hashCode();
-            int c = propHashCode ^ valHashCode;
-            result = 37 * result + c;
+        int result = hash;
+        if (result == 0) {
+            result = computeHashCode();
+            hash = result;
+        }
+        return result;
+    }
+
+    /**
+     * Sums a hash of each property name and value, which does not depend on the order of the properties so that
+     * generated implementations can compute the same hash code.
+     */
+    private int computeHashCode() {
+        int result = 0;
+        for (int i = 0; i < values.length; i++) {
+            result += buildableType.propertyName(i).hashCode() ^ Objects.hashCode(values[i]);
         }
         return result;
     }
@@ -158,12 +141,9 @@ public class BuiltProxy<T extends Buildable<T>> implements InvocationHandler {
     public String toString() {
         final StringBuilder out = new StringBuilder();
         out.append("[DtoProxy: ");
-        DynaProperty[] properties = backingBean.getDynaClass().getDynaProperties();
-        for (int i = 0; i < properties.length; i++) {
-            String propName = properties[i].getName();
-            Object propValue = backingBean.get(propName);
-            out.append(propName).append('=').append(propValue);
-            if (i < properties.length - 1) {
+        for (int i = 0; i < values.length; i++) {
+            out.append(buildableType.propertyName(i)).append('=').append(values[i]);
+            if (i < values.length - 1) {
                 out.append(", ");
             }
         }
@@ -4,26 +4,196 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.annotation.AnnotationBeanWiringInfoResolver;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.wiring.BeanConfigurerSupport;
+import org.springframework.beans.factory.wiring.BeanWiringInfo;
+import org.springframework.beans.factory.wiring.BeanWiringInfoResolver;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Provides a static method to configure @Configurable beans which were not loaded by the Spring context.
  * This is used to configure entities by dependency injection even though the entity was loaded outside of the context.
+ * <p>
+ * The wiring info for each class is resolved once and cached, and counters record how many beans have been configured
+ * and the time spent doing so.
  *
  * @since 30/03/15
  */
 @Configuration
 public class ConfigurableEntitySupport implements BeanFactoryAware {
+    /** Annotations marking fields and methods which are injected by the standard annotation post-processors. */
+    private static final Set<String> INJECTION_ANNOTATIONS = new HashSet<>(Arrays.asList(
+            "org.springframework.beans.factory.annotation.Autowired",
+            "org.springframework.beans.factory.annotation.Value",
+            "javax.inject.Inject",
+            "javax.annotation.Resource"));
+
+    private static final ClassValue<Optional<List<Field>>> INJECTED_FIELDS = new ClassValue<Optional<List<Field>>>() {
+        @Override
+        protected Optional<List<Field>> computeValue(Class<?> type) {
+            return injectedFields(type);
+        }
+    };
+
+    private static final LongAdder CONFIGURED_COUNT = new LongAdder();
+    private static final LongAdder CONFIGURATION_NANOS = new LongAdder();
+
     private static BeanConfigurerSupport beanConfigurerSupport = new BeanConfigurerSupport();
+    private static BeanWiringInfoResolver beanWiringInfoResolver;
+    private static ConfigurableListableBeanFactory configurableBeanFactory;
 
     @Override
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        beanWiringInfoResolver = new CachingBeanWiringInfoResolver(new AnnotationBeanWiringInfoResolver());
         beanConfigurerSupport.setBeanFactory(beanFactory);
-        beanConfigurerSupport.setBeanWiringInfoResolver(new AnnotationBeanWiringInfoResolver());
+        beanConfigurerSupport.setBeanWiringInfoResolver(beanWiringInfoResolver);
+        configurableBeanFactory = (ConfigurableListableBeanFactory) beanFactory;
     }
 
     public static void configureBean(Object bean) {
+        final long start = System.nanoTime();
         beanConfigurerSupport.configureBean(bean);
+        CONFIGURATION_NANOS.add(System.nanoTime() - start);
+        CONFIGURED_COUNT.increment();
+    }
+
+    /**
+     * Configures a batch of beans, e.g. all the entities materialized by a query.
+     * <p>
+     * Where a class is wired only by annotated fields, its dependencies are resolved once for the batch, by configuring
+     * the first instance in full, and then injected into the other instances of that class before they are initialized.
+     * A prototype-scoped dependency is therefore shared by all the instances of a class in the same batch. Classes
+     * which are wired by a named bean definition, autowired by name or type, or which have annotated injection methods,
+     * are configured one by one as by {@link #configureBean(Object)}.
+     *
+     * @param beans the beans to configure
+     */
+    public static void configureBeans(Collection<?> beans) {
+        final long start = System.nanoTime();
+        final Map<Class<?>, Object> firstByClass = new HashMap<>();
+        for (Object bean : beans) {
+            final Object first = firstByClass.putIfAbsent(bean.getClass(), bean);
+            if (first == null || !configureLike(bean, first)) {
+                beanConfigurerSupport.configureBean(bean);
+            }
+        }
+        CONFIGURATION_NANOS.add(System.nanoTime() - start);
+        CONFIGURED_COUNT.add(beans.size());
+    }
+
+    /**
+     * Configures the bean with the dependencies already injected into another, fully configured, bean of the same class.
+     *
+     * @return <code>false</code> if the class cannot be configured this way
+     */
+    private static boolean configureLike(Object bean, Object configured) {
+        final Optional<List<Field>> fields = INJECTED_FIELDS.get(bean.getClass());
+        if (configurableBeanFactory == null || !fields.isPresent()) {
+            return false;
+        }
+        final BeanWiringInfo wiringInfo = beanWiringInfoResolver.resolveWiringInfo(bean);
+        if (wiringInfo == null) {
+            return true;
+        }
+        final String beanName = wiringInfo.getBeanName();
+        final boolean autowiredOnly = wiringInfo.indicatesAutowiring()
+                || wiringInfo.isDefaultBeanName() && beanName != null && !configurableBeanFactory.containsBean(beanName);
+        if (!autowiredOnly || wiringInfo.getAutowireMode() != AutowireCapableBeanFactory.AUTOWIRE_NO) {
+            return false;
+        }
+        for (Field field : fields.get()) {
+            ReflectionUtils.setField(field, bean, ReflectionUtils.getField(field, configured));
+        }
+        configurableBeanFactory.initializeBean(bean, beanName != null ? beanName : "");
+        return true;
+    }
+
+    /**
+     * Finds the annotated fields of the class and its superclasses, or nothing if it also has annotated methods, as
+     * their effect cannot be copied.
+     */
+    private static Optional<List<Field>> injectedFields(Class<?> type) {
+        final List<Field> fields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (isInjected(method)) {
+                    return Optional.empty();
+                }
+            }
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && isInjected(field)) {
+                    ReflectionUtils.makeAccessible(field);
+                    fields.add(field);
+                }
+            }
+        }
+        return Optional.of(fields);
+    }
+
+    private static boolean isInjected(AccessibleObject member) {
+        return Arrays.stream(member.getDeclaredAnnotations())
+                .anyMatch(annotation -> INJECTION_ANNOTATIONS.contains(annotation.annotationType().getName()));
+    }
+
+    /**
+     * Returns the number of beans configured since startup.
+     */
+    public static long getConfiguredCount() {
+        return CONFIGURED_COUNT.sum();
+    }
+
+    /**
+     * Returns the total time spent configuring beans since startup, in nanoseconds.
+     */
+    public static long getConfigurationNanos() {
+        return CONFIGURATION_NANOS.sum();
+    }
+
+    /**
+     * Resolves wiring info once per class, since the annotation based resolver derives it from the class alone.
+     */
+    static class CachingBeanWiringInfoResolver implements BeanWiringInfoResolver {
+        private final BeanWiringInfoResolver delegate;
+        private final ClassValue<AtomicReference<Optional<BeanWiringInfo>>> wiringInfoByClass = new ClassValue<AtomicReference<Optional<BeanWiringInfo>>>() {
+            @Override
+            protected AtomicReference<Optional<BeanWiringInfo>> computeValue(Class<?> type) {
+                return new AtomicReference<>();
+            }
+        };
+
+        CachingBeanWiringInfoResolver(BeanWiringInfoResolver delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public BeanWiringInfo resolveWiringInfo(Object beanInstance) {
+            final AtomicReference<Optional<BeanWiringInfo>> wiringInfo = wiringInfoByClass.get(beanInstance.getClass());
+            Optional<BeanWiringInfo> resolved = wiringInfo.get();
+            if (resolved == null) {
+                resolved = Optional.ofNullable(delegate.resolveWiringInfo(beanInstance));
+                if (!wiringInfo.compareAndSet(null, resolved)) {
+                    resolved = wiringInfo.get();
+                }
+            }
+            return resolved.orElse(null);
+        }
     }
 }
@@ -2,8 +2,19 @@ package ucles.weblab.common.domain.mongodb;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
+ * Base class for MongoDB entities with a string ID.
+ * <p>
+ * Subclasses may opt in to change tracking by calling {@link #markModified(String)} from their setters, so that
+ * {@link EntityChangeWriter} can save just the modified properties with a <code>$set</code>/<code>$unset</code> update
+ * rather than rewriting the whole document.
+ *
  * @since 15/02/15
  */
 @SuppressWarnings("PMD.AbstractClassWithoutAbstractMethod")
@@ -12,6 +23,14 @@ public abstract class AbstractEntity {
     @JsonIgnore
     private String id;
 
+    /**
+     * Names of properties modified since the entity was loaded or last saved by {@link EntityChangeWriter}, or
+     * <code>null</code> if no changes have been tracked.
+     */
+    @Transient
+    @JsonIgnore
+    private Set<String> modifiedProperties;
+
     protected AbstractEntity() { // for Jackson etc
     }
 
@@ -23,6 +42,31 @@ public abstract class AbstractEntity {
         return id;
     }
 
+    /**
+     * Records that a property has been modified. Call this from setters to have only modified properties written by
+     * {@link EntityChangeWriter}.
+     *
+     * @param propertyName the name of the property, as mapped by Spring Data
+     */
+    protected void markModified(String propertyName) {
+        if (modifiedProperties == null) {
+            modifiedProperties = new LinkedHashSet<>();
+        }
+        modifiedProperties.add(propertyName);
+    }
+
+    /**
+     * Returns the names of the properties modified since the entity was loaded or last saved, or <code>null</code> if
+     * changes are not being tracked, in which case the whole entity must be saved.
+     */
+    Set<String> modifiedProperties() {
+        return modifiedProperties == null ? null : Collections.unmodifiableSet(modifiedProperties);
+    }
+
+    void clearModifiedProperties() {
+        modifiedProperties = new LinkedHashSet<>();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -0,0 +1,107 @@
+package ucles.weblab.common.domain.mongodb;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * Variant of {@link AbstractEntity} which stores its ID as a native {@link ObjectId} instead of a string, so that it is
+ * read and written without conversion.
+ * <p>
+ * The ID is allocated on the client when the entity is constructed, using the driver's lock-free generator, so it is
+ * known before the entity is saved and inserts need not wait for the server to report IDs back.
+ * Equality and hashing use the binary ID.
+ * <p>
+ * As the ID is assigned before the first save, the entity implements {@link Persistable} so that Spring Data can still
+ * tell that it is new and insert it rather than upsert it. An entity is new while it still has the ID allocated by its
+ * constructor, and stops being new when it is loaded, as loading replaces the ID, or once it has been saved.
+ * Register {@link ObjectIdEntitySaveCallback} as a bean so that saves through <code>MongoOperations</code> and
+ * repositories mark the entity as saved, which {@link EntityBulkWriter} does itself.
+ * <p>
+ * Subclasses whose instances are mostly loaded rather than created can avoid allocating an ID which would be
+ * replaced by declaring a {@link org.springframework.data.annotation.PersistenceConstructor persistence constructor}
+ * which calls {@link #AbstractObjectIdEntity(ObjectId)}.
+ *
+ * @since 18/10/26
+ */
+@SuppressWarnings("PMD.AbstractClassWithoutAbstractMethod")
+public abstract class AbstractObjectIdEntity implements Persistable<ObjectId> {
+    @Id
+    @JsonIgnore
+    private ObjectId id;
+
+    /**
+     * The ID allocated by the constructor, until the entity has been saved. Compared by identity with the ID, as
+     * loading a document replaces the ID with another instance.
+     */
+    @Transient
+    @JsonIgnore
+    private ObjectId allocatedId;
+
+    /**
+     * Creates a new entity with a newly allocated ID.
+     */
+    protected AbstractObjectIdEntity() {
+        this.id = new ObjectId();
+        this.allocatedId = id;
+    }
+
+    /**
+     * Creates an entity with an existing ID, which is not considered new.
+     */
+    protected AbstractObjectIdEntity(ObjectId id) {
+        this.id = id;
+    }
+
+    @Override
+    public ObjectId getId() {
+        return id;
+    }
+
+    /**
+     * Returns whether the entity has not yet been saved, i.e. it still has the ID allocated when it was constructed.
+     */
+    @Override
+    @JsonIgnore
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    public boolean isNew() {
+        return allocatedId != null && id == allocatedId;
+    }
+
+    /**
+     * Records that the entity has been saved, so that it is no longer new.
+     */
+    void markPersisted() {
+        allocatedId = null;
+    }
+
+    /**
+     * Returns the ID as a hex string, as it would be held by an {@link AbstractEntity}.
+     */
+    @JsonIgnore
+    public String getIdAsString() {
+        return id == null ? null : id.toHexString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        AbstractObjectIdEntity entity = (AbstractObjectIdEntity) o;
+
+        return id == null ? entity.id == null : id.equals(entity.id);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return id == null ? 0 : id.hashCode();
+    }
+}
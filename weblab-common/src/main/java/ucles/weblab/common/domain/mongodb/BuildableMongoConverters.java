@@ -0,0 +1,196 @@
+package ucles.weblab.common.domain.mongodb;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.converter.ConditionalGenericConverter;
+import org.springframework.core.convert.converter.GenericConverter;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.data.convert.Jsr310Converters;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import ucles.weblab.common.domain.Buildable;
+import ucles.weblab.common.domain.BuildableType;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Spring Data MongoDB converters which read a {@link Document} directly into a built {@link Buildable} value, and write
+ * one back, so that read-mostly queries can return DTOs without materializing an entity first, e.g.
+ * <code>mongoTemplate.find(query, CountryDto.class, "countries")</code>.
+ * <p>
+ * Register them by declaring a {@link MongoCustomConversions} bean using {@link #customConversions(Object...)}.
+ * A property named <code>id</code> is mapped to the <code>_id</code> field, as for {@link AbstractEntity}.
+ * <code>LocalDate</code>, <code>LocalDateTime</code> and <code>Instant</code> properties are stored as dates using
+ * Spring Data's {@link Jsr310Converters}, and so in the system default time zone as for entity properties.
+ *
+ * @since 18/10/26
+ */
+public final class BuildableMongoConverters {
+    static final String ID_PROPERTY = "id";
+    static final String ID_FIELD = "_id";
+
+    private BuildableMongoConverters() { // Prevent instantiation
+    }
+
+    /**
+     * Returns custom conversions containing the buildable converters, for use as the <code>MongoCustomConversions</code> bean.
+     *
+     * @param additionalConverters any other custom converters to register
+     * @return the custom conversions
+     */
+    public static MongoCustomConversions customConversions(Object... additionalConverters) {
+        final List<Object> converters = new ArrayList<>(converters());
+        converters.addAll(Arrays.asList(additionalConverters));
+        return new MongoCustomConversions(converters);
+    }
+
+    /**
+     * Returns the buildable reading and writing converters.
+     *
+     * @return the converters
+     */
+    public static List<GenericConverter> converters() {
+        final DefaultConversionService valueConversions = new DefaultConversionService();
+        final DocumentToBuildableConverter reader = new DocumentToBuildableConverter(valueConversions);
+        valueConversions.addConverter(reader);
+        valueConversions.addConverter(ObjectId.class, String.class, ObjectId::toHexString);
+        Jsr310Converters.getConvertersToRegister().forEach(valueConversions::addConverter);
+        return Arrays.asList(reader, new BuildableToDocumentConverter(valueConversions));
+    }
+
+    /**
+     * Reads a document into a built proxy for any buildable interface. Property values are converted to the getter
+     * return types, recursively for nested documents and collections.
+     */
+    @ReadingConverter
+    static final class DocumentToBuildableConverter implements ConditionalGenericConverter {
+        private final ConversionService valueConversions;
+        private final ConcurrentMap<Class<?>, TypeDescriptor[]> propertyTypes = new ConcurrentHashMap<>();
+
+        DocumentToBuildableConverter(ConversionService valueConversions) {
+            this.valueConversions = valueConversions;
+        }
+
+        @Override
+        public Set<ConvertiblePair> getConvertibleTypes() {
+            return Collections.singleton(new ConvertiblePair(Document.class, Buildable.class));
+        }
+
+        @Override
+        public boolean matches(TypeDescriptor sourceType, TypeDescriptor targetType) {
+            return targetType.getType().isInterface() && targetType.getType() != Buildable.class;
+        }
+
+        @Override
+        public Object convert(Object source, TypeDescriptor sourceType, TypeDescriptor targetType) {
+            if (source == null) {
+                return null;
+            }
+            final Document document = (Document) source;
+            final BuildableType<?> buildableType = BuildableType.ofInterface(targetType.getType());
+            final TypeDescriptor[] types = propertyTypes.computeIfAbsent(buildableType.getType(), t -> propertyTypes(buildableType));
+            final Object[] values = new Object[buildableType.size()];
+            for (int i = 0; i < values.length; i++) {
+                final String name = buildableType.propertyName(i);
+                final Object value = document.containsKey(name) || !ID_PROPERTY.equals(name) ? document.get(name) : document.get(ID_FIELD);
+                if (value != null) {
+                    values[i] = valueConversions.convert(value, TypeDescriptor.forObject(value), types[i]);
+                }
+            }
+            return buildableType.newInstance(values);
+        }
+
+        private static TypeDescriptor[] propertyTypes(BuildableType<?> buildableType) {
+            final TypeDescriptor[] types = new TypeDescriptor[buildableType.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = new TypeDescriptor(MethodParameter.forExecutable(buildableType.propertyGetter(i), -1));
+            }
+            return types;
+        }
+    }
+
+    /**
+     * Writes any buildable value as a document, omitting null and empty properties. Nested buildable values are
+     * written as nested documents, enums by name, JSR-310 dates and times as dates, and an <code>id</code> which is a
+     * valid object ID as an {@link ObjectId}.
+     */
+    @WritingConverter
+    static final class BuildableToDocumentConverter implements GenericConverter {
+        private final ConversionService valueConversions;
+
+        BuildableToDocumentConverter(ConversionService valueConversions) {
+            this.valueConversions = valueConversions;
+        }
+
+        @Override
+        public Set<ConvertiblePair> getConvertibleTypes() {
+            return Collections.singleton(new ConvertiblePair(Buildable.class, Document.class));
+        }
+
+        @Override
+        public Object convert(Object source, TypeDescriptor sourceType, TypeDescriptor targetType) {
+            return source == null ? null : toDocument((Buildable<?>) source);
+        }
+
+        private Document toDocument(Buildable<?> source) {
+            final BuildableType<?> buildableType = BuildableType.ofValue(source);
+            final Document document = new Document();
+            for (int i = 0; i < buildableType.size(); i++) {
+                final String name = buildableType.propertyName(i);
+                Object value = toMongoValue(buildableType.getValue(source, i));
+                if (ID_PROPERTY.equals(name)) {
+                    if (value instanceof String && ObjectId.isValid((String) value)) {
+                        value = new ObjectId((String) value);
+                    }
+                    if (value != null) {
+                        document.put(ID_FIELD, value);
+                    }
+                } else if (value != null) {
+                    document.put(name, value);
+                }
+            }
+            return document;
+        }
+
+        @SuppressWarnings("PMD.CyclomaticComplexity")
+        private Object toMongoValue(Object value) {
+            if (value instanceof Optional) {
+                return toMongoValue(((Optional<?>) value).orElse(null));
+            } else if (value instanceof Buildable) {
+                return toDocument((Buildable<?>) value);
+            } else if (value instanceof Enum) {
+                return ((Enum<?>) value).name();
+            } else if (value instanceof LocalDate || value instanceof LocalDateTime || value instanceof Instant) {
+                return valueConversions.convert(value, Date.class);
+            } else if (value instanceof Collection) {
+                final List<Object> list = new ArrayList<>(((Collection<?>) value).size());
+                for (Object element : (Collection<?>) value) {
+                    list.add(toMongoValue(element));
+                }
+                return list;
+            } else if (value instanceof Map) {
+                final Document document = new Document();
+                ((Map<?, ?>) value).forEach((key, element) -> document.put(String.valueOf(key), toMongoValue(element)));
+                return document;
+            }
+            return value;
+        }
+    }
+}
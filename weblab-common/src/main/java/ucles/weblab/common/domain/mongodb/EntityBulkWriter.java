@@ -0,0 +1,239 @@
+package ucles.weblab.common.domain.mongodb;
+
+import com.mongodb.bulk.BulkWriteResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes entities such as {@link AbstractEntity} and {@link AbstractObjectIdEntity} subclasses in batches using
+ * {@link BulkOperations}, so that imports and batch jobs need one round trip per batch rather than one per document.
+ * <p>
+ * Each call splits the entities into batches of the configured size and executes them in turn, returning a
+ * {@link BatchResult} for each batch. If a batch fails, the {@link org.springframework.data.mongodb.BulkOperationException}
+ * is thrown and later batches are not executed. In {@link BulkOperations.BulkMode#ORDERED ordered} mode the failing
+ * batch stops at the first error, while in {@link BulkOperations.BulkMode#UNORDERED unordered} mode the rest of it is
+ * still attempted.
+ * <p>
+ * Inserted entities are not updated with server-generated IDs, so use {@link AbstractObjectIdEntity} or assign IDs
+ * before inserting if they are needed afterwards. Inserted and upserted {@link AbstractObjectIdEntity} instances are
+ * marked as no longer new once their batch has succeeded.
+ * <p>
+ * If constructed with an {@link EntityCache}, {@link AbstractEntity} instances are evicted from it before each batch
+ * is written, and inserted or upserted ones are cached once their batch has succeeded. Deleted ones, and all those in a
+ * batch which fails, are evicted again after the batch, in case they were read back into the cache meanwhile.
+ *
+ * @since 18/10/26
+ */
+public class EntityBulkWriter {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final String ID_FIELD = "_id";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final MongoOperations mongoOperations;
+    private final int batchSize;
+    private final BulkOperations.BulkMode bulkMode;
+    private final EntityCache entityCache;
+
+    public EntityBulkWriter(MongoOperations mongoOperations) {
+        this(mongoOperations, DEFAULT_BATCH_SIZE, BulkOperations.BulkMode.UNORDERED);
+    }
+
+    public EntityBulkWriter(MongoOperations mongoOperations, int batchSize, BulkOperations.BulkMode bulkMode) {
+        this(mongoOperations, batchSize, bulkMode, null);
+    }
+
+    /**
+     * @param entityCache a cache to keep up to date with the writes, or <code>null</code>
+     */
+    public EntityBulkWriter(MongoOperations mongoOperations, int batchSize, BulkOperations.BulkMode bulkMode, EntityCache entityCache) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.mongoOperations = mongoOperations;
+        this.batchSize = batchSize;
+        this.bulkMode = bulkMode;
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * Inserts new entities.
+     *
+     * @param entityClass the entity class, which determines the collection
+     * @param entities    the entities to insert
+     * @return the result of each batch, in order
+     */
+    public <T> List<BatchResult> insert(Class<T> entityClass, Collection<? extends T> entities) {
+        return execute(entityClass, entities, true, (bulkOperations, batch) -> bulkOperations.insert(batch));
+    }
+
+    /**
+     * Replaces each entity's document by ID, inserting it if there is none.
+     *
+     * @param entityClass the entity class, which determines the collection
+     * @param entities    the entities to save, which must all have IDs
+     * @return the result of each batch, in order
+     * @throws IllegalStateException if an entity has no ID
+     */
+    public <T> List<BatchResult> upsert(Class<T> entityClass, Collection<? extends T> entities) {
+        final MongoPersistentEntity<?> persistentEntity = persistentEntity(entityClass);
+        final FindAndReplaceOptions options = FindAndReplaceOptions.options().upsert();
+        return execute(entityClass, entities, true, (bulkOperations, batch) -> {
+            for (T entity : batch) {
+                final Object id = persistentEntity.getIdentifierAccessor(entity).getRequiredIdentifier();
+                bulkOperations.replaceOne(Query.query(Criteria.where(ID_FIELD).is(id)), entity, options);
+            }
+        });
+    }
+
+    /**
+     * Deletes entities by ID.
+     *
+     * @param entityClass the entity class, which determines the collection
+     * @param entities    the entities to delete, which must all have IDs
+     * @return the result of each batch, in order
+     * @throws IllegalStateException if an entity has no ID
+     */
+    public <T> List<BatchResult> delete(Class<T> entityClass, Collection<? extends T> entities) {
+        final MongoPersistentEntity<?> persistentEntity = persistentEntity(entityClass);
+        return execute(entityClass, entities, false, (bulkOperations, batch) -> {
+            final List<Object> ids = new ArrayList<>(batch.size());
+            for (T entity : batch) {
+                ids.add(persistentEntity.getIdentifierAccessor(entity).getRequiredIdentifier());
+            }
+            bulkOperations.remove(Query.query(Criteria.where(ID_FIELD).in(ids)));
+        });
+    }
+
+    private MongoPersistentEntity<?> persistentEntity(Class<?> entityClass) {
+        return mongoOperations.getConverter().getMappingContext().getRequiredPersistentEntity(entityClass);
+    }
+
+    private <T> List<BatchResult> execute(Class<T> entityClass, Collection<? extends T> entities, boolean saved, BatchOperation<T> operation) {
+        if (entities.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<BatchResult> results = new ArrayList<>((entities.size() + batchSize - 1) / batchSize);
+        final List<T> batch = new ArrayList<>(Math.min(batchSize, entities.size()));
+        for (T entity : entities) {
+            batch.add(entity);
+            if (batch.size() == batchSize) {
+                results.add(executeBatch(entityClass, batch, saved, operation, results.size()));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            results.add(executeBatch(entityClass, batch, saved, operation, results.size()));
+        }
+        return results;
+    }
+
+    private <T> BatchResult executeBatch(Class<T> entityClass, List<T> batch, boolean saved, BatchOperation<T> operation, int index) {
+        final long start = System.nanoTime();
+        final BulkOperations bulkOperations = mongoOperations.bulkOps(bulkMode, entityClass);
+        operation.addTo(bulkOperations, batch);
+        if (entityCache != null) {
+            entityCache.evictAll(batch);
+        }
+        final BulkWriteResult result;
+        try {
+            result = bulkOperations.execute();
+        } catch (RuntimeException e) { // NOPMD - rethrown after eviction
+            if (entityCache != null) {
+                entityCache.evictAll(batch);
+            }
+            throw e;
+        }
+        if (saved) {
+            markPersisted(batch);
+            if (entityCache != null) {
+                entityCache.putAll(batch);
+            }
+        } else if (entityCache != null) {
+            entityCache.evictAll(batch);
+        }
+        final BatchResult batchResult = new BatchResult(index, batch.size(), result, Duration.ofNanos(System.nanoTime() - start));
+        log.debug("Bulk write of {}: {}", entityClass.getSimpleName(), batchResult);
+        return batchResult;
+    }
+
+    /**
+     * Marks written {@link AbstractObjectIdEntity} instances as no longer new, as the save callback would.
+     */
+    private static void markPersisted(List<?> batch) {
+        for (Object entity : batch) {
+            if (entity instanceof AbstractObjectIdEntity) {
+                ((AbstractObjectIdEntity) entity).markPersisted();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BatchOperation<T> {
+        void addTo(BulkOperations bulkOperations, List<T> batch);
+    }
+
+    /**
+     * The outcome of executing one batch.
+     */
+    public static final class BatchResult {
+        private final int index;
+        private final int size;
+        private final BulkWriteResult result;
+        private final Duration duration;
+
+        BatchResult(int index, int size, BulkWriteResult result, Duration duration) {
+            this.index = index;
+            this.size = size;
+            this.result = result;
+            this.duration = duration;
+        }
+
+        /**
+         * Returns the position of the batch, starting from zero.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the number of entities in the batch.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the result reported by the server, which has counts of inserted, matched, modified, deleted and
+         * upserted documents.
+         */
+        public BulkWriteResult getResult() {
+            return result;
+        }
+
+        /**
+         * Returns the time taken to prepare and execute the batch.
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return "batch " + index + " of " + size + " in " + duration.toMillis() + "ms: inserted=" + result.getInsertedCount()
+                    + ", matched=" + result.getMatchedCount() + ", modified=" + result.getModifiedCount()
+                    + ", deleted=" + result.getDeletedCount() + ", upserted=" + result.getUpserts().size();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ucles.weblab.common.domain.mongodb;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Read-through cache of {@link AbstractEntity} instances by collection and ID, bounded by size and by time since each
+ * entry was written. Keying on the collection rather than the class means that an entity read through a superclass
+ * is evicted when it is saved or deleted as its own class.
+ * <p>
+ * Saves and deletes made through this class, or through an {@link EntityBulkWriter} or {@link EntityChangeWriter}
+ * constructed with it, keep the cache up to date. Entries are evicted before each write and replaced or evicted again
+ * once it completes, so that a concurrent read which loaded the document before the write cannot leave it cached.
+ * Changes made any other way, including by other application instances, are only seen once the entry expires, so
+ * choose the time to live accordingly.
+ * <p>
+ * The same cached instance is returned to every caller and thread, so it must be treated as read-only. Calling a
+ * setter on it would show the unsaved change to every other caller, and would be written by an
+ * {@link EntityChangeWriter} used by any of them. To change an entity, load it from {@link MongoOperations} instead.
+ *
+ * @since 18/10/26
+ */
+public class EntityCache {
+    private final MongoOperations mongoOperations;
+    private final Cache<EntityKey, AbstractEntity> cache;
+
+    public EntityCache(MongoOperations mongoOperations, long maximumSize, Duration timeToLive) {
+        this.mongoOperations = mongoOperations;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the entity with the given ID, from the cache if present and otherwise from the database.
+     *
+     * @param entityClass the entity class
+     * @param id          the entity ID
+     * @return the entity, or empty if there is no such document
+     */
+    public <T extends AbstractEntity> Optional<T> findById(Class<T> entityClass, String id) {
+        final AbstractEntity entity = cache.get(key(entityClass, id), key -> mongoOperations.findById(id, entityClass));
+        if (entity != null && !entityClass.isInstance(entity)) {
+            // Cached through a superclass as an instance of a different subclass, so read it as requested
+            return Optional.ofNullable(mongoOperations.findById(id, entityClass));
+        }
+        return Optional.ofNullable(entityClass.cast(entity));
+    }
+
+    /**
+     * Saves an entity in full and caches it.
+     *
+     * @param entity the entity to save
+     * @return the saved entity
+     */
+    public <T extends AbstractEntity> T save(T entity) {
+        evict(entity);
+        final T saved;
+        try {
+            saved = mongoOperations.save(entity);
+        } catch (RuntimeException e) { // NOPMD - rethrown after eviction
+            evict(entity);
+            throw e;
+        }
+        put(saved);
+        return saved;
+    }
+
+    /**
+     * Deletes an entity and removes it from the cache.
+     *
+     * @param entity the entity to delete
+     */
+    public void delete(AbstractEntity entity) {
+        evict(entity);
+        try {
+            mongoOperations.remove(entity);
+        } finally {
+            evict(entity);
+        }
+    }
+
+    /**
+     * Caches an entity which has just been written. Entities without an ID are ignored.
+     */
+    public void put(AbstractEntity entity) {
+        if (entity.getId() != null) {
+            cache.put(key(entity.getClass(), entity.getId()), entity);
+        }
+    }
+
+    public void putAll(Collection<?> entities) {
+        for (Object entity : entities) {
+            if (entity instanceof AbstractEntity) {
+                put((AbstractEntity) entity);
+            }
+        }
+    }
+
+    public void evict(AbstractEntity entity) {
+        if (entity.getId() != null) {
+            evict(entity.getClass(), entity.getId());
+        }
+    }
+
+    public void evict(Class<? extends AbstractEntity> entityClass, String id) {
+        cache.invalidate(key(entityClass, id));
+    }
+
+    public void evictAll(Collection<?> entities) {
+        for (Object entity : entities) {
+            if (entity instanceof AbstractEntity) {
+                evict((AbstractEntity) entity);
+            }
+        }
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the hit, miss, load and eviction statistics since the cache was created.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private EntityKey key(Class<?> entityClass, String id) {
+        return new EntityKey(mongoOperations.getCollectionName(entityClass), id);
+    }
+
+    private static final class EntityKey {
+        private final String collectionName;
+        private final String id;
+
+        EntityKey(String collectionName, String id) {
+            this.collectionName = collectionName;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final EntityKey other = (EntityKey) o;
+            return collectionName.equals(other.collectionName) && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * collectionName.hashCode() + id.hashCode();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ucles.weblab.common.domain.mongodb;
+
+import com.mongodb.client.result.UpdateResult;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mapping.model.ConvertingPropertyAccessor;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Set;
+
+/**
+ * Saves {@link AbstractEntity} subclasses which track their changes by writing only the modified properties, using a
+ * <code>$set</code> for each non-null value and an <code>$unset</code> for each null one.
+ * <p>
+ * If the entity has a {@link org.springframework.data.annotation.Version @Version} property, the update only matches
+ * the version which was loaded and increments it, in the same way as <code>MongoOperations.save</code>, throwing
+ * {@link OptimisticLockingFailureException} if the document has been modified meanwhile.
+ * <p>
+ * Entities which are not tracking changes, are new, or have no document yet are saved in full with
+ * <code>MongoOperations.save</code>.
+ * <p>
+ * If constructed with an {@link EntityCache}, saved entities are cached, and evicted if the save fails.
+ *
+ * @since 18/10/26
+ */
+public class EntityChangeWriter {
+    private static final String ID_FIELD = "_id";
+
+    private final MongoOperations mongoOperations;
+    private final EntityCache entityCache;
+    private final DefaultConversionService conversionService = new DefaultConversionService();
+
+    public EntityChangeWriter(MongoOperations mongoOperations) {
+        this(mongoOperations, null);
+    }
+
+    /**
+     * @param entityCache a cache to keep up to date with the writes, or <code>null</code>
+     */
+    public EntityChangeWriter(MongoOperations mongoOperations, EntityCache entityCache) {
+        this.mongoOperations = mongoOperations;
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * Saves the properties modified since the entity was loaded or last saved.
+     *
+     * @param entity the entity to save
+     * @param <T>    the entity type
+     * @return the saved entity, which is the same instance unless it was saved in full
+     * @throws OptimisticLockingFailureException if the entity is versioned and its document has a different version
+     */
+    public <T extends AbstractEntity> T saveChanges(T entity) {
+        if (entityCache == null) {
+            return writeChanges(entity);
+        }
+        try {
+            final T saved = writeChanges(entity);
+            entityCache.put(saved);
+            return saved;
+        } catch (RuntimeException e) { // NOPMD - rethrown after eviction
+            entityCache.evict(entity);
+            throw e;
+        }
+    }
+
+    private <T extends AbstractEntity> T writeChanges(T entity) {
+        final Set<String> modified = entity.modifiedProperties();
+        if (modified == null || entity.getId() == null) {
+            return saveAll(entity);
+        }
+        if (modified.isEmpty()) {
+            return entity;
+        }
+
+        final MongoPersistentEntity<?> persistentEntity = mongoOperations.getConverter().getMappingContext().getRequiredPersistentEntity(entity.getClass());
+        final PersistentPropertyAccessor<T> accessor = new ConvertingPropertyAccessor<>(persistentEntity.getPropertyAccessor(entity), conversionService);
+        final Query query = Query.query(Criteria.where(ID_FIELD).is(entity.getId()));
+        final Update update = new Update();
+        for (String propertyName : modified) {
+            final MongoPersistentProperty property = persistentEntity.getRequiredPersistentProperty(propertyName);
+            final Object value = accessor.getProperty(property);
+            if (value == null) {
+                update.unset(property.getName());
+            } else {
+                update.set(property.getName(), value);
+            }
+        }
+
+        final MongoPersistentProperty versionProperty = persistentEntity.getVersionProperty();
+        final Number version = versionProperty == null ? null : (Number) accessor.getProperty(versionProperty);
+        if (versionProperty != null) {
+            if (version == null) {
+                return saveAll(entity);
+            }
+            query.addCriteria(Criteria.where(versionProperty.getName()).is(version));
+            update.inc(versionProperty.getName(), 1);
+        }
+
+        final UpdateResult result = mongoOperations.updateFirst(query, update, entity.getClass());
+        if (result.getMatchedCount() == 0) {
+            if (versionProperty != null) {
+                throw new OptimisticLockingFailureException(String.format("Cannot save entity %s with version %s to collection %s. Has it been modified meanwhile?",
+                        entity.getId(), version, persistentEntity.getCollection()));
+            }
+            return saveAll(entity);
+        }
+        if (versionProperty != null) {
+            accessor.setProperty(versionProperty, version.longValue() + 1);
+        }
+        entity.clearModifiedProperties();
+        return entity;
+    }
+
+    private <T extends AbstractEntity> T saveAll(T entity) {
+        final T saved = mongoOperations.save(entity);
+        if (saved.modifiedProperties() != null) {
+            saved.clearModifiedProperties();
+        }
+        return saved;
+    }
+}
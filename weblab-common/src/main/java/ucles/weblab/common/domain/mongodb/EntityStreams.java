@@ -0,0 +1,72 @@
+package ucles.weblab.common.domain.mongodb;
+
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.StreamUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.stream.Stream;
+
+/**
+ * Runs queries whose results are read from a MongoDB cursor as they are consumed, rather than loaded into a list, so
+ * that exports and reports over millions of documents run in constant memory. Documents are fetched from the server
+ * in batches of the configured size.
+ * <p>
+ * The {@link Flux} methods need <code>reactor-core</code> on the classpath.
+ *
+ * @since 18/10/26
+ */
+public class EntityStreams {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final MongoOperations mongoOperations;
+    private final int batchSize;
+
+    public EntityStreams(MongoOperations mongoOperations) {
+        this(mongoOperations, DEFAULT_BATCH_SIZE);
+    }
+
+    public EntityStreams(MongoOperations mongoOperations, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.mongoOperations = mongoOperations;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns a lazy stream of the query results. The stream holds an open cursor until it is exhausted or closed, so
+     * it must be closed, e.g. using try-with-resources.
+     *
+     * @param query       the query, which is run with the configured cursor batch size if it has none
+     * @param entityClass the entity class
+     * @return the stream of entities
+     */
+    public <T> Stream<T> stream(Query query, Class<T> entityClass) {
+        return StreamUtils.createStreamFromIterator(open(query, entityClass));
+    }
+
+    /**
+     * Returns a flux of the query results which reads from the cursor only as the subscriber requests more.
+     * The query runs when the flux is subscribed, on the bounded elastic scheduler as the driver blocks, and the cursor
+     * is closed on completion, error or cancellation.
+     *
+     * @param query       the query, which is run with the configured cursor batch size if it has none
+     * @param entityClass the entity class
+     * @return the flux of entities
+     */
+    public <T> Flux<T> flux(Query query, Class<T> entityClass) {
+        return Flux.using(() -> open(query, entityClass), iterator -> Flux.fromIterable(() -> iterator), CloseableIterator::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private <T> CloseableIterator<T> open(Query query, Class<T> entityClass) {
+        if (query.getMeta().getCursorBatchSize() == null) {
+            // Set the batch size on a copy, so that the caller's query is unchanged
+            return mongoOperations.stream(Query.of(query).cursorBatchSize(batchSize), entityClass);
+        }
+        return mongoOperations.stream(query, entityClass);
+    }
+}
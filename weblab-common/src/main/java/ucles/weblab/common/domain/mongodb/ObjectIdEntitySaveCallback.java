@@ -0,0 +1,19 @@
+package ucles.weblab.common.domain.mongodb;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveCallback;
+
+/**
+ * Entity callback which marks {@link AbstractObjectIdEntity} instances as no longer new once they have been saved, so
+ * that saving one again updates it rather than attempting a second insert. Declare it as a bean for Spring Data to
+ * invoke it.
+ *
+ * @since 18/10/26
+ */
+public class ObjectIdEntitySaveCallback implements AfterSaveCallback<AbstractObjectIdEntity> {
+    @Override
+    public AbstractObjectIdEntity onAfterSave(AbstractObjectIdEntity entity, Document document, String collection) {
+        entity.markPersisted();
+        return entity;
+    }
+}
@@ -0,0 +1,21 @@
+package ucles.weblab.common.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method whose {@link org.springframework.security.access.prepost.PreAuthorize @PreAuthorize} expression
+ * depends only on the authorities granted to the user, e.g. <code>hasRole('ADMIN') or hasAuthority('EDIT')</code>,
+ * so that {@link SecurityChecker} can share its decision between all users with the same authorities.
+ * Do not use it for expressions which refer to the principal, method arguments or beans.
+ *
+ * @since 18/10/26
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface AuthorityOnly {
+}
@@ -16,11 +16,24 @@ import org.springframework.security.core.context.SecurityContextHolder;
  * <code>
  *     logging.pattern.level=%10user %5p
  * </code>
+ * <p>
+ * The user is taken from the event's MDC if {@link UserMdcFilter} or {@link RunAsTemplate} has put it there, which is
+ * safe with an <code>AsyncAppender</code> as the MDC is captured with the event. Otherwise it is read from the security
+ * context of the thread formatting the event, which is only correct for synchronous appenders.
  */
 public class LogbackUserConverter extends ClassicConverter {
+    /**
+     * MDC key under which the current user's name is stored. It is namespaced so as not to clash with keys put in the
+     * MDC by applications, and can also be logged directly with <code>%X{weblab.user}</code>.
+     */
+    public static final String USER_MDC_KEY = "weblab.user";
 
     @Override
     public String convert(ILoggingEvent event) {
+        final String user = event.getMDCPropertyMap().get(USER_MDC_KEY);
+        if (user != null) {
+            return user;
+        }
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         if (auth != null) {
             return auth.getName();
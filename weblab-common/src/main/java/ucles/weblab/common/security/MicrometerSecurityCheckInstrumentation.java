@@ -0,0 +1,89 @@
+package ucles.weblab.common.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records {@link SecurityChecker} timings with Micrometer, e.g. with
+ * <code>securityChecker.setInstrumentation(new MicrometerSecurityCheckInstrumentation(meterRegistry))</code>.
+ * <ul>
+ *     <li><code>security.check</code> times each check, tagged with the normalized expression or method as
+ *     <code>check</code> and with an <code>outcome</code> of <code>allowed</code> or <code>denied</code>, so its
+ *     counts are the allow and deny counts.</li>
+ *     <li><code>security.expression.parse</code> times parsing, tagged with the normalized <code>expression</code>.</li>
+ * </ul>
+ * Expressions are normalized by collapsing whitespace and truncating them to {@value #MAX_TAG_LENGTH} characters.
+ * <p>
+ * As expressions may be built at runtime, the number of distinct checks and expressions given their own tag is limited,
+ * by default to the size of the {@link SecurityChecker} expression cache. Once the limit is reached, any further
+ * checks or expressions are recorded with a tag of {@value #OTHER_TAG}. The limit may be exceeded slightly when new
+ * checks are first recorded concurrently.
+ *
+ * @since 18/10/26
+ */
+public class MicrometerSecurityCheckInstrumentation implements SecurityCheckInstrumentation {
+    public static final String CHECK_METRIC = "security.check";
+    public static final String PARSE_METRIC = "security.expression.parse";
+    public static final int DEFAULT_MAX_TAGS = SecurityChecker.DEFAULT_MAX_CACHED_EXPRESSIONS;
+    static final String OTHER_TAG = "other";
+    static final int MAX_TAG_LENGTH = 100;
+
+    private final MeterRegistry meterRegistry;
+    private final int maxTags;
+    /**
+     * Allowed and denied timers for each check, in that order.
+     */
+    private final ConcurrentMap<String, Timer[]> checkTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> parseTimers = new ConcurrentHashMap<>();
+
+    public MicrometerSecurityCheckInstrumentation(MeterRegistry meterRegistry) {
+        this(meterRegistry, DEFAULT_MAX_TAGS);
+    }
+
+    /**
+     * @param meterRegistry the registry to record timings in
+     * @param maxTags the maximum number of distinct checks, and of distinct expressions, to tag individually
+     */
+    public MicrometerSecurityCheckInstrumentation(MeterRegistry meterRegistry, int maxTags) {
+        this.meterRegistry = meterRegistry;
+        this.maxTags = maxTags;
+    }
+
+    @Override
+    public void expressionParsed(String expression, long nanos) {
+        Timer timer = parseTimers.get(expression);
+        if (timer == null) {
+            final String key = parseTimers.size() < maxTags ? expression : OTHER_TAG;
+            timer = parseTimers.computeIfAbsent(key, e -> Timer.builder(PARSE_METRIC)
+                    .tag("expression", normalize(e))
+                    .register(meterRegistry));
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void checked(String check, boolean allowed, long nanos) {
+        Timer[] timers = checkTimers.get(check);
+        if (timers == null) {
+            final String key = checkTimers.size() < maxTags ? check : OTHER_TAG;
+            timers = checkTimers.computeIfAbsent(key, c -> new Timer[]{checkTimer(c, "allowed"), checkTimer(c, "denied")});
+        }
+        timers[allowed ? 0 : 1].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer checkTimer(String check, String outcome) {
+        return Timer.builder(CHECK_METRIC)
+                .tag("check", normalize(check))
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    static String normalize(String expression) {
+        final String normalized = expression.trim().replaceAll("\\s+", " ");
+        return normalized.length() > MAX_TAG_LENGTH ? normalized.substring(0, MAX_TAG_LENGTH) : normalized;
+    }
+}
@@ -0,0 +1,47 @@
+package ucles.weblab.common.security;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+/**
+ * Reactive counterpart of {@link RunAsTemplate}, which runs a {@link Mono} or {@link Flux} with the security context
+ * set in its subscriber context, so that <code>ReactiveSecurityContextHolder.getContext()</code> returns the user
+ * whichever threads the pipeline runs on.
+ * <p>
+ * The same caveat applies as for {@link RunAsTemplate} when using a {@link PreAuthenticatedAuthenticationToken}.
+ * Needs <code>reactor-core</code> on the classpath.
+ *
+ * @since 18/10/26
+ */
+public class ReactiveRunAsTemplate {
+    private final Context securityContext;
+
+    public ReactiveRunAsTemplate(UserDetails user) {
+        this(new PreAuthenticatedAuthenticationToken(user, user.getPassword(), user.getAuthorities()));
+    }
+
+    public ReactiveRunAsTemplate(Authentication auth) {
+        this.securityContext = ReactiveSecurityContextHolder.withAuthentication(auth);
+    }
+
+    /**
+     * Returns a mono which subscribes to the given one as the user, replacing any security context set further
+     * downstream.
+     */
+    public <T> Mono<T> execute(Mono<T> mono) {
+        return mono.subscriberContext(securityContext);
+    }
+
+    /**
+     * Returns a flux which subscribes to the given one as the user, replacing any security context set further
+     * downstream.
+     */
+    public <T> Flux<T> execute(Flux<T> flux) {
+        return flux.subscriberContext(securityContext);
+    }
+}
@@ -1,10 +1,23 @@
 package ucles.weblab.common.security;
 
+import org.slf4j.MDC;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutor;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
@@ -13,8 +26,20 @@ import java.util.function.Supplier;
  * configured {@link org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationProvider} then
  * the context is only good for accessing current user identity and cannot be used for authorization (so no protected
  * methods, for example).
+ * <p>
+ * Work can also be run as the user on other threads, either with {@link #executeAsync(Supplier, Executor)} or by
+ * submitting tasks to an executor {@link #wrap(Executor) wrapped} by this template, in which case the security context
+ * is created once and installed around each task.
+ * <p>
+ * While running as the user, the user's name also replaces the request user in the MDC, so that log lines written
+ * by {@link LogbackUserConverter} show who the work is being done as, including with an <code>AsyncAppender</code>.
  */
 public class RunAsTemplate {
+    /**
+     * <code>Executors.newVirtualThreadPerTaskExecutor()</code>, if running on a JDK which has virtual threads.
+     */
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadPerTaskExecutor();
+
     private final Authentication auth;
 
     public RunAsTemplate(UserDetails user) {
@@ -29,19 +54,157 @@ public class RunAsTemplate {
         final Authentication savedAuthentication = SecurityContextHolder.getContext().getAuthentication();
         try {
             SecurityContextHolder.getContext().setAuthentication(auth);
-            return callback.get();
+            return withUserMdc(callback);
         } finally {
             SecurityContextHolder.getContext().setAuthentication(savedAuthentication);
         }
     }
 
     public void execute(Runnable callback) {
-        final Authentication savedAuthentication = SecurityContextHolder.getContext().getAuthentication();
-        try {
-            SecurityContextHolder.getContext().setAuthentication(auth);
+        execute(() -> {
             callback.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the callback asynchronously on the executor as the user.
+     *
+     * @param callback the callback
+     * @param executor the executor to run the callback on
+     * @return a future which completes with the callback's result
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<T> callback, Executor executor) {
+        return CompletableFuture.supplyAsync(callback, wrap(executor));
+    }
+
+    /**
+     * Runs the callback asynchronously on the executor as the user.
+     *
+     * @param callback the callback
+     * @param executor the executor to run the callback on
+     * @return a future which completes when the callback has run
+     */
+    public CompletableFuture<Void> executeAsync(Runnable callback, Executor executor) {
+        return CompletableFuture.runAsync(callback, wrap(executor));
+    }
+
+    /**
+     * Returns an executor which runs every task as the user, restoring each worker thread's own security context
+     * afterwards.
+     */
+    public Executor wrap(Executor executor) {
+        return new DelegatingSecurityContextExecutor(task -> executor.execute(withUserMdc(task)), createSecurityContext());
+    }
+
+    /**
+     * Returns an executor service which runs every task as the user, restoring each worker thread's own security
+     * context afterwards.
+     */
+    public ExecutorService wrap(ExecutorService executorService) {
+        return new DelegatingSecurityContextExecutorService(new UserMdcExecutorService(executorService), createSecurityContext());
+    }
+
+    /**
+     * Returns a new executor service which runs every task as the user on a new virtual thread, if the JDK supports
+     * them, and otherwise on a cached thread pool. JDK 19 and 20 only support virtual threads as a preview feature, so
+     * without <code>--enable-preview</code> the cached thread pool is used there too.
+     * It should be shut down when no longer needed.
+     */
+    public ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+            try {
+                return wrap((ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null));
+            } catch (InvocationTargetException e) {
+                if (!(e.getCause() instanceof UnsupportedOperationException)) {
+                    throw new IllegalStateException("Could not create virtual thread executor", e.getCause());
+                }
+                // Preview features are not enabled - fall through to the cached thread pool
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Could not create virtual thread executor", e);
+            }
+        }
+        return wrap(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Runs the callback with the user's name in the MDC under {@link LogbackUserConverter#USER_MDC_KEY}, replacing any
+     * request user put there by {@link UserMdcFilter}, and restores the previous value afterwards.
+     */
+    private <T> T withUserMdc(Supplier<T> callback) {
+        final String savedUser = MDC.get(LogbackUserConverter.USER_MDC_KEY);
+        MDC.put(LogbackUserConverter.USER_MDC_KEY, auth.getName());
+        try {
+            return callback.get();
         } finally {
-            SecurityContextHolder.getContext().setAuthentication(savedAuthentication);
+            if (savedUser == null) {
+                MDC.remove(LogbackUserConverter.USER_MDC_KEY);
+            } else {
+                MDC.put(LogbackUserConverter.USER_MDC_KEY, savedUser);
+            }
+        }
+    }
+
+    private Runnable withUserMdc(Runnable task) {
+        return () -> withUserMdc(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private SecurityContext createSecurityContext() {
+        final SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(auth);
+        return context;
+    }
+
+    /**
+     * Runs every task with the user's name in the MDC. Tasks submitted with a result are run through
+     * {@link #execute(Runnable)} as well, so that all of them are covered.
+     */
+    private final class UserMdcExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+
+        UserMdcExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(withUserMdc(command));
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    private static Method findVirtualThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
         }
     }
 }
@@ -0,0 +1,34 @@
+package ucles.weblab.common.security;
+
+/**
+ * Receives timings from a {@link SecurityChecker}, e.g. to record them as metrics. All times are in nanoseconds.
+ *
+ * @see MicrometerSecurityCheckInstrumentation
+ * @since 18/10/26
+ */
+public interface SecurityCheckInstrumentation {
+    /**
+     * Instrumentation which records nothing, in which case the checker does not time checks at all.
+     */
+    SecurityCheckInstrumentation NONE = new SecurityCheckInstrumentation() {
+    };
+
+    /**
+     * Called when an expression has been parsed, which happens once unless the expression cache is full.
+     *
+     * @param expression the security expression
+     * @param nanos      the time taken to parse it
+     */
+    default void expressionParsed(String expression, long nanos) {
+    }
+
+    /**
+     * Called when a check has been made.
+     *
+     * @param check   the security expression, or for a method check the class and method name
+     * @param allowed the outcome
+     * @param nanos   the time taken to check, including parsing and evaluating the expression if needed
+     */
+    default void checked(String check, boolean allowed, long nanos) {
+    }
+}
@@ -3,6 +3,9 @@ package ucles.weblab.common.security;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.hateoas.server.core.MethodInvocation;
 import org.springframework.security.access.annotation.Secured;
@@ -10,37 +13,303 @@ import org.springframework.security.access.expression.ExpressionUtils;
 import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.util.SimpleMethodInvocation;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.function.Predicate;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * Checks if a security expression is satisfied by or a method invocation is permitted for the current user.
+ * <p>
+ * Parsed expressions are cached, up to a maximum number of distinct expressions, and are compiled to bytecode by SpEL
+ * once they have been evaluated enough times, falling back to interpretation if compilation is not possible.
+ * The security annotations on each method are read once, and the current user's authorities are collected into a set
+ * once per thread for as long as the same authentication is in use.
+ * <p>
+ * Decisions may also be cached for the duration of a request, by enabling {@link #setCacheDecisionsPerRequest(boolean)},
+ * or of a block of code, using {@link #withDecisionCache(Supplier)}. Only expressions which do not refer to variables
+ * such as method arguments with <code>#</code> are cached, as other expressions may depend on the target object.
+ * <p>
+ * Decisions for methods annotated with <code>@Secured</code>, or with <code>@PreAuthorize</code> and
+ * {@link AuthorityOnly @AuthorityOnly}, are shared between all users with the same set of authorities, up to a maximum
+ * number of decisions. Call {@link #invalidateAuthorityDecisions()} if the meaning of authorities changes, e.g. when
+ * role definitions are reloaded.
+ * <p>
+ * Checks and parsing can be timed by setting a {@link SecurityCheckInstrumentation}.
  */
 public class SecurityChecker {
+    public static final int DEFAULT_MAX_CACHED_EXPRESSIONS = 512;
+    public static final int MAX_AUTHORITY_DECISIONS = 4096;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final MethodSecurityExpressionHandler expressionHandler;
 
     private Method triggerCheckMethod;
     private SpelExpressionParser parser;
+    private final ConcurrentMap<String, Expression> expressions = new ConcurrentHashMap<>();
+    private final int maxCachedExpressions;
+    private final ConcurrentMap<Method, MethodSecurity> methodSecurity = new ConcurrentHashMap<>();
+    private final ThreadLocal<AuthoritySet> authoritySets = new ThreadLocal<>();
+    private final ConcurrentMap<AuthorityDecision, Boolean> authorityDecisions = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<Decision, Boolean>> threadDecisions = new ThreadLocal<>();
+    private final LongAdder savedEvaluations = new LongAdder();
+    private final String decisionsAttribute = getClass().getName() + ".decisions." + System.identityHashCode(this);
+    private boolean cacheDecisionsPerRequest;
+    private SecurityCheckInstrumentation instrumentation = SecurityCheckInstrumentation.NONE;
 
     private static class SecurityObject {
         public void triggerCheck() { /*NOP*/ }
     }
 
+    /**
+     * The security annotations found on a method.
+     */
+    private static final class MethodSecurity {
+        private final String name;
+        private final String preAuthorize;
+        private final String[] securedRoles;
+        private final boolean authorityOnly;
+
+        MethodSecurity(Method method, String preAuthorize, String[] securedRoles) {
+            this.name = method.getDeclaringClass().getSimpleName() + '.' + method.getName();
+            this.preAuthorize = preAuthorize;
+            this.securedRoles = securedRoles;
+            this.authorityOnly = preAuthorize == null ? securedRoles != null : method.isAnnotationPresent(AuthorityOnly.class);
+        }
+    }
+
+    /**
+     * The authority names of an authentication, which is weakly referenced so as not to hold on to it from the thread.
+     */
+    private static final class AuthoritySet {
+        private final WeakReference<Authentication> authentication;
+        private final Set<String> authorities;
+        private final int authoritiesHash;
+
+        AuthoritySet(Authentication authentication) {
+            this.authentication = new WeakReference<>(authentication);
+            final Collection<? extends GrantedAuthority> granted = authentication.getAuthorities();
+            this.authorities = new HashSet<>(granted.size() * 2);
+            for (GrantedAuthority authority : granted) {
+                authorities.add(authority.getAuthority());
+            }
+            this.authoritiesHash = authorities.hashCode();
+        }
+    }
+
+    /**
+     * Key for a decision shared between users: a method checked for a set of authorities.
+     */
+    private static final class AuthorityDecision {
+        private final Method method;
+        private final Set<String> authorities;
+        private final int hash;
+
+        AuthorityDecision(Method method, AuthoritySet authoritySet) {
+            this.method = method;
+            this.authorities = authoritySet.authorities;
+            this.hash = 31 * method.hashCode() + authoritySet.authoritiesHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final AuthorityDecision other = (AuthorityDecision) o;
+            return hash == other.hash && method.equals(other.method) && authorities.equals(other.authorities);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Key for a cached decision: an expression evaluated for an authentication, which is compared by identity.
+     */
+    private static final class Decision {
+        private final Authentication authentication;
+        private final String expression;
+
+        Decision(Authentication authentication, String expression) {
+            this.authentication = authentication;
+            this.expression = expression;
+        }
+
+        @Override
+        @SuppressWarnings("PMD.CompareObjectsWithEquals")
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Decision other = (Decision) o;
+            return authentication == other.authentication && expression.equals(other.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(authentication) + expression.hashCode();
+        }
+    }
+
     public SecurityChecker(MethodSecurityExpressionHandler expressionHandler) {
+        this(expressionHandler, DEFAULT_MAX_CACHED_EXPRESSIONS);
+    }
+
+    /**
+     * @param maxCachedExpressions the number of distinct expressions to keep parsed, beyond which expressions are
+     *                             parsed on every check
+     */
+    public SecurityChecker(MethodSecurityExpressionHandler expressionHandler, int maxCachedExpressions) {
         this.expressionHandler = expressionHandler;
+        this.maxCachedExpressions = maxCachedExpressions;
         try {
             triggerCheckMethod = SecurityObject.class.getMethod("triggerCheck");
         } catch (NoSuchMethodException e) {
             logger.error("Error initialising SecurityChecked", e);
         }
-        parser = new SpelExpressionParser();
+        parser = new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.MIXED, getClass().getClassLoader()));
+    }
+
+    /**
+     * Returns the parsed expression, from the cache if it has been parsed before. Once the cache is full, further
+     * expressions are parsed each time rather than evicting, as the set of expressions in use is normally small and fixed.
+     */
+    Expression parse(String securityExpression) {
+        Expression expression = expressions.get(securityExpression);
+        if (expression == null) {
+            final long start = System.nanoTime();
+            expression = parser.parseExpression(securityExpression);
+            instrumentation.expressionParsed(securityExpression, System.nanoTime() - start);
+            if (expressions.size() < maxCachedExpressions) {
+                final Expression existing = expressions.putIfAbsent(securityExpression, expression);
+                if (existing != null) {
+                    expression = existing;
+                }
+            }
+        }
+        return expression;
+    }
+
+    /**
+     * Sets the instrumentation to receive timings of checks. Defaults to {@link SecurityCheckInstrumentation#NONE}.
+     */
+    public void setInstrumentation(SecurityCheckInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    private boolean isInstrumented() {
+        return instrumentation != SecurityCheckInstrumentation.NONE;
+    }
+
+    /**
+     * Sets whether decisions are cached in the attributes of the current web request, if there is one, so that an
+     * expression is evaluated once per request for each authentication. Defaults to <code>false</code>.
+     */
+    public void setCacheDecisionsPerRequest(boolean cacheDecisionsPerRequest) {
+        this.cacheDecisionsPerRequest = cacheDecisionsPerRequest;
+    }
+
+    /**
+     * Runs an action with decisions cached on this thread until it returns, e.g. while rendering a page of resources
+     * outside of a web request.
+     *
+     * @param action the action to run
+     * @param <T>    the result type
+     * @return the result of the action
+     */
+    public <T> T withDecisionCache(Supplier<T> action) {
+        final Map<Decision, Boolean> previous = threadDecisions.get();
+        if (previous != null) {
+            return action.get();
+        }
+        threadDecisions.set(new ConcurrentHashMap<>());
+        try {
+            return action.get();
+        } finally {
+            threadDecisions.remove();
+        }
+    }
+
+    /**
+     * Returns the number of evaluations avoided by returning cached decisions since this checker was created.
+     */
+    public long getSavedEvaluationCount() {
+        return savedEvaluations.sum();
+    }
+
+    private boolean evaluate(Authentication authentication, String securityExpression, Supplier<EvaluationContext> evaluationContext) {
+        final Map<Decision, Boolean> decisions = securityExpression.indexOf('#') < 0 ? currentDecisions() : null;
+        if (decisions == null) {
+            return ExpressionUtils.evaluateAsBoolean(parse(securityExpression), evaluationContext.get());
+        }
+        final Decision decision = new Decision(authentication, securityExpression);
+        final Boolean cached = decisions.get(decision);
+        if (cached != null) {
+            savedEvaluations.increment();
+            return cached;
+        }
+        final boolean result = ExpressionUtils.evaluateAsBoolean(parse(securityExpression), evaluationContext.get());
+        decisions.put(decision, result);
+        return result;
+    }
+
+    private EvaluationContext createEvaluationContext(Authentication authentication) {
+        return expressionHandler.createEvaluationContext(authentication, new SimpleMethodInvocation(new SecurityObject(), triggerCheckMethod));
+    }
+
+    private Map<Decision, Boolean> currentDecisions() {
+        final Map<Decision, Boolean> decisions = threadDecisions.get();
+        if (decisions != null || !cacheDecisionsPerRequest || !RequestDecisions.AVAILABLE) {
+            return decisions;
+        }
+        return RequestDecisions.get(decisionsAttribute);
+    }
+
+    /**
+     * Holds decisions in request attributes, separately so that this class can be loaded without Spring Web.
+     */
+    private static final class RequestDecisions {
+        static final boolean AVAILABLE = ClassUtils.isPresent("org.springframework.web.context.request.RequestContextHolder",
+                SecurityChecker.class.getClassLoader());
+
+        @SuppressWarnings("unchecked")
+        static Map<Decision, Boolean> get(String attribute) {
+            final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+            if (requestAttributes == null) {
+                return null;
+            }
+            Map<Decision, Boolean> decisions = (Map<Decision, Boolean>) requestAttributes.getAttribute(attribute, RequestAttributes.SCOPE_REQUEST);
+            if (decisions == null) {
+                decisions = new ConcurrentHashMap<>();
+                requestAttributes.setAttribute(attribute, decisions, RequestAttributes.SCOPE_REQUEST);
+            }
+            return decisions;
+        }
     }
 
     public boolean check(String securityExpression) {
@@ -48,13 +317,16 @@ public class SecurityChecker {
             logger.debug("Checking security expression [" + securityExpression + "]...");
         }
 
-        SecurityObject securityObject = new SecurityObject();
+        final boolean instrumented = isInstrumented();
+        final long start = instrumented ? System.nanoTime() : 0L;
         final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         boolean checkResult = authentication != null;
 
         if (checkResult) {
-            EvaluationContext evaluationContext = expressionHandler.createEvaluationContext(authentication, new SimpleMethodInvocation(securityObject, triggerCheckMethod));
-            checkResult = ExpressionUtils.evaluateAsBoolean(parser.parseExpression(securityExpression), evaluationContext);
+            checkResult = evaluate(authentication, securityExpression, () -> createEvaluationContext(authentication));
+        }
+        if (instrumented) {
+            instrumentation.checked(securityExpression, checkResult, System.nanoTime() - start);
         }
 
         if (logger.isDebugEnabled()) {
@@ -64,21 +336,92 @@ public class SecurityChecker {
         return checkResult;
     }
 
+    /**
+     * Checks several security expressions for the current user at once, creating a single evaluation context for all
+     * of them.
+     *
+     * @param securityExpressions the expressions to check
+     * @return the result for each distinct expression, in the order given
+     */
+    public Map<String, Boolean> checkAll(Collection<String> securityExpressions) {
+        final Map<String, Boolean> results = new LinkedHashMap<>(securityExpressions.size() * 2);
+        final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null) {
+            securityExpressions.forEach(securityExpression -> results.put(securityExpression, Boolean.FALSE));
+            return results;
+        }
+
+        final EvaluationContext[] evaluationContext = new EvaluationContext[1];
+        final Supplier<EvaluationContext> sharedEvaluationContext = () -> {
+            if (evaluationContext[0] == null) {
+                evaluationContext[0] = createEvaluationContext(authentication);
+            }
+            return evaluationContext[0];
+        };
+        final boolean instrumented = isInstrumented();
+        for (String securityExpression : securityExpressions) {
+            if (!results.containsKey(securityExpression)) {
+                final long start = instrumented ? System.nanoTime() : 0L;
+                final boolean checkResult = evaluate(authentication, securityExpression, sharedEvaluationContext);
+                if (instrumented) {
+                    instrumentation.checked(securityExpression, checkResult, System.nanoTime() - start);
+                }
+                results.put(securityExpression, checkResult);
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Check results: " + results);
+        }
+        return results;
+    }
+
     public boolean check(MethodInvocation methodInvocation) {
+        final boolean instrumented = isInstrumented();
+        final long start = instrumented ? System.nanoTime() : 0L;
+        final MethodSecurity security = methodSecurity.computeIfAbsent(methodInvocation.getMethod(), SecurityChecker::readMethodSecurity);
+        final boolean checkResult = check(methodInvocation, security);
+        if (instrumented) {
+            instrumentation.checked(security.name, checkResult, System.nanoTime() - start);
+        }
+        return checkResult;
+    }
+
+    private boolean check(MethodInvocation methodInvocation, MethodSecurity security) {
         final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !security.authorityOnly) {
+            return checkUncached(methodInvocation, security, authentication);
+        }
 
-        PreAuthorize preAuth = methodInvocation.getMethod().getAnnotation(PreAuthorize.class);
-        if (preAuth != null) {
+        final AuthorityDecision decision = new AuthorityDecision(methodInvocation.getMethod(), authoritySet(authentication));
+        final Boolean cached = authorityDecisions.get(decision);
+        if (cached != null) {
+            savedEvaluations.increment();
+            return cached;
+        }
+        final boolean result = checkUncached(methodInvocation, security, authentication);
+        if (authorityDecisions.size() < MAX_AUTHORITY_DECISIONS) {
+            authorityDecisions.put(decision, result);
+        }
+        return result;
+    }
+
+    private boolean checkUncached(MethodInvocation methodInvocation, MethodSecurity security, Authentication authentication) {
+        if (security.preAuthorize != null) {
             if (authentication == null) {
                 return false;
             }
-            EvaluationContext evaluationContext = expressionHandler.createEvaluationContext(authentication, new SimpleMethodInvocation(methodInvocation.getTargetType(), methodInvocation.getMethod()));
-            return ExpressionUtils.evaluateAsBoolean(parser.parseExpression(preAuth.value()), evaluationContext);
+            return evaluate(authentication, security.preAuthorize, () -> expressionHandler.createEvaluationContext(authentication,
+                    new SimpleMethodInvocation(methodInvocation.getTargetType(), methodInvocation.getMethod())));
         }
-        Secured secured = methodInvocation.getMethod().getAnnotation(Secured.class);
-        if (secured != null) {
+        if (security.securedRoles != null) {
             if (authentication != null) {
-                return Arrays.stream(secured.value()).anyMatch(role -> contains(authentication.getAuthorities(), a -> a.getAuthority().equals(role)));
+                final Set<String> authorities = authorities(authentication);
+                for (String role : security.securedRoles) {
+                    if (authorities.contains(role)) {
+                        return true;
+                    }
+                }
             }
             return false;
         }
@@ -86,9 +429,43 @@ public class SecurityChecker {
         return true;
     }
 
-    static <T> boolean contains(Collection<T> collection, Predicate<T> predicate) {
-        return collection.stream().anyMatch(predicate);
+    private static MethodSecurity readMethodSecurity(Method method) {
+        PreAuthorize preAuth = method.getAnnotation(PreAuthorize.class);
+        if (preAuth != null) {
+            return new MethodSecurity(method, preAuth.value(), null);
+        }
+        Secured secured = method.getAnnotation(Secured.class);
+        if (secured != null) {
+            return new MethodSecurity(method, null, secured.value());
+        }
+        return new MethodSecurity(method, null, null);
+    }
+
+    /**
+     * Discards the decisions shared between users with the same authorities, e.g. after role definitions have changed.
+     */
+    public void invalidateAuthorityDecisions() {
+        authorityDecisions.clear();
     }
 
+    /**
+     * Returns the names of the authorities granted to an authentication.
+     */
+    Set<String> authorities(Authentication authentication) {
+        return authoritySet(authentication).authorities;
+    }
 
+    /**
+     * Returns the authorities granted to an authentication, reusing the set built for the previous call on this thread
+     * if it was for the same authentication.
+     */
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    private AuthoritySet authoritySet(Authentication authentication) {
+        AuthoritySet authoritySet = authoritySets.get();
+        if (authoritySet == null || authoritySet.authentication.get() != authentication) {
+            authoritySet = new AuthoritySet(authentication);
+            authoritySets.set(authoritySet);
+        }
+        return authoritySet;
+    }
 }
@@ -0,0 +1,40 @@
+package ucles.weblab.common.security;
+
+import org.slf4j.MDC;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Puts the name of the authenticated user into the MDC for the rest of the request, so that
+ * {@link LogbackUserConverter} can log it from the event, including when formatted later by an
+ * <code>AsyncAppender</code> on another thread.
+ * <p>
+ * Register it to run after the Spring Security filter chain, e.g. with a <code>FilterRegistrationBean</code> ordered
+ * after <code>SecurityProperties.DEFAULT_FILTER_ORDER</code>, so that the user has been authenticated.
+ *
+ * @since 18/10/26
+ */
+public class UserMdcFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        final Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        MDC.put(LogbackUserConverter.USER_MDC_KEY, auth.getName());
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            MDC.remove(LogbackUserConverter.USER_MDC_KEY);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ucles.weblab.common.config;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for ConfigurationHealthCheck, checking when the cached result is reused.
+ */
+public class ConfigurationHealthCheckTest {
+
+    static class ConfigurationReloadedEvent extends ApplicationEvent {
+        ConfigurationReloadedEvent(Object source) {
+            super(source);
+        }
+    }
+
+    private final Map<String, Object> properties = new HashMap<>();
+    private Runnable onCheck = () -> { };
+    private StandardEnvironment environment;
+
+    @Before
+    public void setUp() {
+        properties.put("app.url", "http://localhost");
+        properties.put("app.name", "test");
+        environment = new StandardEnvironment() {
+            @Override
+            public boolean containsProperty(String key) {
+                final boolean contains = super.containsProperty(key);
+                onCheck.run();
+                return contains;
+            }
+        };
+        environment.getPropertySources().addFirst(new MapPropertySource("test", properties));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testFailsAtStartupWhenPropertyMissing() {
+        new ConfigurationHealthCheck(environment, Arrays.asList("app.url", "app.missing"));
+    }
+
+    @Test
+    public void testReusesResultUntilTimeToLiveExpires() throws InterruptedException {
+        final ConfigurationHealthCheck healthCheck = new ConfigurationHealthCheck(environment, Arrays.asList("app.url", "app.name"), Duration.ofMillis(100));
+        properties.remove("app.name");
+
+        assertEquals("Cached result should be reused", Status.UP, healthCheck.health().getStatus());
+
+        Thread.sleep(150);
+        assertEquals(Status.DOWN, healthCheck.health().getStatus());
+        assertEquals(Arrays.asList("app.name"), healthCheck.health().getDetails().get("missing-properties"));
+    }
+
+    @Test
+    public void testRefreshesOnSpringCloudEventsByDefault() {
+        assertTrue(ConfigurationHealthCheck.DEFAULT_REFRESH_EVENTS.contains("org.springframework.cloud.context.environment.EnvironmentChangeEvent"));
+        assertTrue(ConfigurationHealthCheck.DEFAULT_REFRESH_EVENTS.contains("org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent"));
+    }
+
+    @Test
+    public void testChecksAgainAfterRefreshEvent() {
+        final ConfigurationHealthCheck healthCheck = new ConfigurationHealthCheck(environment, Arrays.asList("app.url", "app.name"), Duration.ofHours(1));
+        healthCheck.setRefreshEvents(Collections.singleton(ConfigurationReloadedEvent.class.getName()));
+        properties.remove("app.name");
+
+        healthCheck.onApplicationEvent(new ApplicationEvent(this) { });
+        assertEquals("Other events should not invalidate the result", Status.UP, healthCheck.health().getStatus());
+
+        healthCheck.onApplicationEvent(new ConfigurationReloadedEvent(this));
+        assertEquals(Status.DOWN, healthCheck.health().getStatus());
+    }
+
+    @Test
+    public void testChecksAgainAfterInvalidate() {
+        final ConfigurationHealthCheck healthCheck = new ConfigurationHealthCheck(environment, Arrays.asList("app.url", "app.name"), Duration.ofHours(1));
+        properties.remove("app.name");
+
+        healthCheck.invalidate();
+
+        assertEquals(Status.DOWN, healthCheck.health().getStatus());
+    }
+
+    @Test
+    public void testDoesNotCacheResultOfCheckRunningWhenInvalidated() {
+        final ConfigurationHealthCheck healthCheck = new ConfigurationHealthCheck(environment, Arrays.asList("app.url", "app.name"), Duration.ofHours(1));
+        healthCheck.invalidate();
+        onCheck = () -> {
+            // Simulate a refresh which removes a property after this check has read it
+            onCheck = () -> { };
+            properties.remove("app.url");
+            healthCheck.invalidate();
+        };
+
+        assertEquals("The check in progress saw the old environment", Status.UP, healthCheck.health().getStatus());
+        assertEquals("The stale result should not have been cached", Status.DOWN, healthCheck.health().getStatus());
+    }
+}
@@ -0,0 +1,171 @@
+package ucles.weblab.common.domain;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Unit test for the BuildableModule, checking that Jackson annotations and settings apply to buildables as they
+ * would to any other bean.
+ */
+public class BuildableModuleTest {
+
+    public interface Summary {
+    }
+
+    public interface Detail extends Summary {
+    }
+
+    public interface Item extends Buildable<Item> {
+        @JsonProperty("item_name")
+        @JsonAlias("title")
+        @JsonView(Summary.class)
+        String getName();
+
+        @JsonIgnore
+        String getSecret();
+
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        List<String> getTags();
+
+        Optional<String> getNote();
+
+        int getQuantity();
+
+        @JsonView(Detail.class)
+        String getDescription();
+
+        interface Builder extends Buildable.Builder<Item> {
+            Builder name(String name);
+
+            Builder secret(String secret);
+
+            Builder tags(List<String> tags);
+
+            Builder note(Optional<String> note);
+
+            Builder quantity(int quantity);
+
+            Builder description(String description);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public interface Lenient extends Buildable<Lenient> {
+        String getUnitPrice();
+    }
+
+    private ObjectMapper objectMapper;
+    private ObjectMapper plainMapper;
+    private Item.Builder builder;
+
+    @Before
+    public void setUp() {
+        objectMapper = new ObjectMapper().registerModule(new Jdk8Module()).registerModule(new BuildableModule());
+        plainMapper = new ObjectMapper().registerModule(new Jdk8Module());
+        builder = new BuilderProxyFactory().builder(Item.Builder.class, Item.class);
+    }
+
+    @Test
+    public void shouldSerializeWithAnnotationsAsJacksonWould() throws Exception {
+        final Item item = builder.name("widget").secret("hidden").tags(Collections.emptyList()).quantity(3).description("a widget").get();
+
+        final String json = objectMapper.writeValueAsString(item);
+
+        assertEquals(objectMapper.readTree("{\"item_name\":\"widget\",\"note\":null,\"quantity\":3,\"description\":\"a widget\"}"),
+                objectMapper.readTree(json));
+        assertEquals("Slot reads should give the same JSON as Jackson's own getter calls",
+                plainMapper.readTree(plainMapper.writeValueAsString(item)), objectMapper.readTree(json));
+    }
+
+    @Test
+    public void shouldSerializeOnlyPropertiesInActiveView() throws Exception {
+        final Item item = builder.name("widget").quantity(3).description("a widget").get();
+
+        final String json = objectMapper.writerWithView(Summary.class).writeValueAsString(item);
+
+        assertTrue(json, json.contains("\"item_name\":\"widget\""));
+        assertTrue(json, !json.contains("description"));
+    }
+
+    @Test
+    public void shouldApplyNamingStrategy() throws Exception {
+        objectMapper.setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+        final Lenient lenient = BuildableType.of(Lenient.class).newInstance("1.50");
+
+        final String json = objectMapper.writeValueAsString(lenient);
+
+        assertEquals("{\"unit_price\":\"1.50\"}", json);
+        assertEquals(lenient, objectMapper.readValue(json, Lenient.class));
+    }
+
+    @Test
+    public void shouldRoundTripValues() throws Exception {
+        final Item item = builder.name("widget").tags(Arrays.asList("a", "b")).note(Optional.of("fragile")).quantity(3).description("a widget").get();
+
+        final Item read = objectMapper.readValue(objectMapper.writeValueAsString(item), Item.class);
+
+        assertEquals(item, read);
+    }
+
+    @Test
+    public void shouldReadNullsAsDefaults() throws Exception {
+        final Item read = objectMapper.readValue("{\"item_name\":null,\"note\":null,\"quantity\":null}", Item.class);
+
+        assertNull(read.getName());
+        assertEquals(Optional.empty(), read.getNote());
+        assertEquals(0, read.getQuantity());
+    }
+
+    @Test
+    public void shouldReadAliases() throws Exception {
+        assertEquals("widget", objectMapper.readValue("{\"title\":\"widget\"}", Item.class).getName());
+    }
+
+    @Test
+    public void shouldSkipIgnoredProperties() throws Exception {
+        final Item read = objectMapper.readValue("{\"item_name\":\"widget\",\"secret\":\"hidden\"}", Item.class);
+
+        assertEquals("widget", read.getName());
+        assertNull(read.getSecret());
+    }
+
+    @Test(expected = UnrecognizedPropertyException.class)
+    public void shouldFailOnUnknownProperties() throws Exception {
+        objectMapper.readValue("{\"item_name\":\"widget\",\"colour\":\"red\"}", Item.class);
+    }
+
+    @Test
+    public void shouldSkipUnknownPropertiesWhenIgnoringUnknown() throws Exception {
+        final Lenient read = objectMapper.readValue("{\"unitPrice\":\"1.50\",\"colour\":{\"name\":\"red\"}}", Lenient.class);
+
+        assertEquals("1.50", read.getUnitPrice());
+    }
+
+    @Test
+    public void shouldReadOnlyPropertiesInActiveView() throws Exception {
+        final Item read = objectMapper.readerWithView(Summary.class).forType(Item.class)
+                .readValue("{\"item_name\":\"widget\",\"description\":\"a widget\"}");
+
+        assertEquals("widget", read.getName());
+        assertNull(read.getDescription());
+    }
+}
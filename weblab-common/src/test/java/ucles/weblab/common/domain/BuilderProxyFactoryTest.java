@@ -0,0 +1,146 @@
+package ucles.weblab.common.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Unit test for the proxy implementation of builders created by BuilderProxyFactory.
+ */
+public class BuilderProxyFactoryTest {
+
+    public interface Widget extends Buildable<Widget> {
+        String getName();
+
+        int getCount();
+
+        boolean isEnabled();
+
+        Optional<String> getDescription();
+
+        interface Builder extends Buildable.Builder<Widget> {
+            Builder name(String name);
+
+            Builder count(int count);
+
+            Builder enabled(boolean enabled);
+
+            Builder description(Optional<String> description);
+        }
+    }
+
+    private Widget.Builder builder;
+
+    @Before
+    public void setUp() {
+        builder = new BuilderProxyFactory().builder(Widget.Builder.class, Widget.class);
+    }
+
+    @Test
+    public void shouldReturnPropertyValuesAndDefaults() {
+        Widget widget = builder.name("sprocket").get();
+
+        assertEquals("sprocket", widget.getName());
+        assertEquals(0, widget.getCount());
+        assertFalse(widget.isEnabled());
+        assertEquals(Optional.empty(), widget.getDescription());
+    }
+
+    @Test
+    public void shouldIsolateBuiltValuesFromLaterChanges() {
+        Widget first = builder.name("sprocket").count(1).get();
+        Widget second = builder.count(2).enabled(true).get();
+
+        assertEquals(1, first.getCount());
+        assertFalse(first.isEnabled());
+        assertEquals(2, second.getCount());
+        assertTrue(second.isEnabled());
+        assertEquals("sprocket", second.getName());
+    }
+
+    @Test
+    public void shouldBeUsableAsSetElements() {
+        Widget first = builder.name("sprocket").count(1).get();
+        Widget same = builder.get();
+        Widget different = builder.count(2).get();
+
+        assertEquals(first, same);
+        assertEquals(first.hashCode(), same.hashCode());
+        assertNotEquals(first, different);
+
+        Set<Widget> widgets = new HashSet<>();
+        widgets.add(first);
+        widgets.add(same);
+        widgets.add(different);
+        assertEquals(2, widgets.size());
+        assertTrue(widgets.contains(builder.count(1).get()));
+    }
+
+    @Test
+    public void shouldInternEqualValuesAsSameInstance() {
+        final Widget first = builder.name("sprocket").count(1).get();
+        final Widget equal = new BuilderProxyFactory().builder(Widget.Builder.class, Widget.class).name("sprocket").count(1).get();
+        final Widget different = builder.count(2).get();
+
+        final Widget canonical = new BuilderProxyFactory().intern(first);
+
+        assertSame(first, canonical);
+        assertSame("Equal values interned by another factory should share the instance", first, new BuilderProxyFactory().intern(equal));
+        assertSame(different, new BuilderProxyFactory().intern(different));
+        assertNull(new BuilderProxyFactory().intern(null));
+    }
+
+    @Test
+    public void shouldBuildAllRowsInOrderCarryingOverUnsetValues() {
+        final List<Widget> widgets = new BuilderProxyFactory().buildAll(Widget.Builder.class, Widget.class, Arrays.asList(1, 2, 3),
+                (widgetBuilder, row) -> {
+                    widgetBuilder.count(row);
+                    if (row == 1) {
+                        widgetBuilder.name("first");
+                    }
+                });
+
+        assertEquals(3, widgets.size());
+        for (int i = 0; i < widgets.size(); i++) {
+            assertEquals(i + 1, widgets.get(i).getCount());
+            assertEquals("Values not set again should carry over from the previous row", "first", widgets.get(i).getName());
+        }
+    }
+
+    @Test
+    public void shouldCollectInEncounterOrderFromParallelStream() {
+        final List<Integer> rows = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+
+        final List<Widget> widgets = rows.parallelStream()
+                .collect(new BuilderProxyFactory().toBuilt(Widget.Builder.class, Widget.class, (widgetBuilder, row) -> widgetBuilder.count(row)));
+
+        assertEquals(rows.size(), widgets.size());
+        for (int i = 0; i < widgets.size(); i++) {
+            assertEquals(i, widgets.get(i).getCount());
+        }
+    }
+
+    @Test
+    public void shouldNotShareValuesBetweenBuiltRows() {
+        final List<Widget> widgets = Stream.of("a", "b")
+                .collect(new BuilderProxyFactory().toBuilt(Widget.Builder.class, Widget.class, (widgetBuilder, row) -> widgetBuilder.name(row)));
+
+        assertEquals("a", widgets.get(0).getName());
+        assertEquals("b", widgets.get(1).getName());
+    }
+}
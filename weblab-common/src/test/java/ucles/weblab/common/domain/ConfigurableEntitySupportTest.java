@@ -0,0 +1,133 @@
+package ucles.weblab.common.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.beans.factory.wiring.BeanWiringInfo;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for ConfigurableEntitySupport, configuring entities from a bean factory with a prototype dependency.
+ */
+public class ConfigurableEntitySupportTest {
+
+    static class Greeter {
+    }
+
+    @Configurable
+    static class Note implements InitializingBean {
+        @Autowired
+        private Greeter greeter;
+        private boolean initialized;
+
+        @Override
+        public void afterPropertiesSet() {
+            initialized = true;
+        }
+    }
+
+    @Configurable
+    static class Letter {
+        private Greeter greeter;
+
+        @Autowired
+        void setGreeter(Greeter greeter) {
+            this.greeter = greeter;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        final AutowiredAnnotationBeanPostProcessor autowiredProcessor = new AutowiredAnnotationBeanPostProcessor();
+        autowiredProcessor.setBeanFactory(beanFactory);
+        beanFactory.addBeanPostProcessor(autowiredProcessor);
+        final RootBeanDefinition greeter = new RootBeanDefinition(Greeter.class);
+        greeter.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        beanFactory.registerBeanDefinition("greeter", greeter);
+        new ConfigurableEntitySupport().setBeanFactory(beanFactory);
+    }
+
+    @Test
+    public void testConfigureBeanResolvesDependenciesForEachBean() {
+        final Note first = new Note();
+        final Note second = new Note();
+
+        ConfigurableEntitySupport.configureBean(first);
+        ConfigurableEntitySupport.configureBean(second);
+
+        assertNotNull(first.greeter);
+        assertNotSame("Prototype should be resolved for each bean", first.greeter, second.greeter);
+        assertTrue(first.initialized);
+    }
+
+    @Test
+    public void testConfigureBeansResolvesDependenciesOncePerBatch() {
+        final Note first = new Note();
+        final Note second = new Note();
+        final Note third = new Note();
+
+        ConfigurableEntitySupport.configureBeans(Arrays.asList(first, second, third));
+
+        assertNotNull(first.greeter);
+        assertSame("Dependency should be resolved once for the batch", first.greeter, second.greeter);
+        assertSame(first.greeter, third.greeter);
+        assertTrue("Every bean should be initialized", first.initialized && second.initialized && third.initialized);
+    }
+
+    @Test
+    public void testConfigureBeansConfiguresMethodInjectedBeansOneByOne() {
+        final Letter first = new Letter();
+        final Letter second = new Letter();
+
+        ConfigurableEntitySupport.configureBeans(Arrays.asList(first, second));
+
+        assertNotNull(first.greeter);
+        assertNotNull(second.greeter);
+        assertNotSame(first.greeter, second.greeter);
+    }
+
+    @Test
+    public void testCountersRecordConfiguredBeans() {
+        final long count = ConfigurableEntitySupport.getConfiguredCount();
+        final long nanos = ConfigurableEntitySupport.getConfigurationNanos();
+
+        ConfigurableEntitySupport.configureBean(new Note());
+        ConfigurableEntitySupport.configureBeans(Arrays.asList(new Note(), new Letter(), new Note()));
+
+        assertEquals(count + 4, ConfigurableEntitySupport.getConfiguredCount());
+        assertTrue(ConfigurableEntitySupport.getConfigurationNanos() > nanos);
+    }
+
+    @Test
+    public void testCachingResolverCallsDelegateOncePerClass() {
+        final AtomicInteger calls = new AtomicInteger();
+        final ConfigurableEntitySupport.CachingBeanWiringInfoResolver resolver = new ConfigurableEntitySupport.CachingBeanWiringInfoResolver(bean -> {
+            calls.incrementAndGet();
+            return bean instanceof Note ? new BeanWiringInfo() : null;
+        });
+
+        final BeanWiringInfo wiringInfo = resolver.resolveWiringInfo(new Note());
+        assertSame(wiringInfo, resolver.resolveWiringInfo(new Note()));
+        assertNull(resolver.resolveWiringInfo(new Letter()));
+        assertNull(resolver.resolveWiringInfo(new Letter()));
+
+        assertNotNull(wiringInfo);
+        assertEquals("Delegate should be called once per class, including when it resolves nothing", 2, calls.get());
+    }
+}
@@ -0,0 +1,63 @@
+package ucles.weblab.common.domain.mongodb;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for the new-entity handling of AbstractObjectIdEntity.
+ */
+public class AbstractObjectIdEntityTest {
+
+    static class Thing extends AbstractObjectIdEntity {
+        Thing() {
+        }
+
+        Thing(ObjectId id) {
+            super(id);
+        }
+    }
+
+    private MappingMongoConverter converter;
+
+    @Before
+    public void setUp() {
+        converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+    }
+
+    @Test
+    public void testConstructedEntityIsNewUntilSaved() {
+        final Thing thing = new Thing();
+
+        assertNotNull(thing.getId());
+        assertTrue(thing.isNew());
+
+        new ObjectIdEntitySaveCallback().onAfterSave(thing, new Document(), "thing");
+        assertFalse(thing.isNew());
+    }
+
+    @Test
+    public void testEntityWithExistingIdIsNotNew() {
+        assertFalse(new Thing(new ObjectId()).isNew());
+    }
+
+    @Test
+    public void testLoadedEntityIsNotNew() {
+        final ObjectId id = new ObjectId();
+
+        final Thing thing = converter.read(Thing.class, new Document("_id", id));
+
+        assertEquals(id, thing.getId());
+        assertFalse(thing.isNew());
+    }
+}
@@ -0,0 +1,270 @@
+package ucles.weblab.common.domain.mongodb;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import ucles.weblab.common.domain.Buildable;
+import ucles.weblab.common.domain.BuilderProxyFactory;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for BuildableMongoConverters, converting between documents and buildable values in both directions.
+ */
+public class BuildableMongoConvertersTest {
+
+    public enum Status {
+        OPEN, CLOSED
+    }
+
+    public interface LineDto extends Buildable<LineDto> {
+        String getProduct();
+
+        int getQuantity();
+
+        interface Builder extends Buildable.Builder<LineDto> {
+            Builder product(String product);
+
+            Builder quantity(int quantity);
+        }
+    }
+
+    public interface OrderDto extends Buildable<OrderDto> {
+        String getId();
+
+        Status getStatus();
+
+        LineDto getMainLine();
+
+        List<LineDto> getLines();
+
+        Optional<String> getNote();
+
+        LocalDate getOrderDate();
+
+        LocalDateTime getCreated();
+
+        Instant getUpdated();
+
+        interface Builder extends Buildable.Builder<OrderDto> {
+            Builder id(String id);
+
+            Builder status(Status status);
+
+            Builder mainLine(LineDto mainLine);
+
+            Builder lines(List<LineDto> lines);
+
+            Builder note(Optional<String> note);
+
+            Builder orderDate(LocalDate orderDate);
+
+            Builder created(LocalDateTime created);
+
+            Builder updated(Instant updated);
+        }
+    }
+
+    /**
+     * An entity holding buildable values, as read by the mapping converter.
+     */
+    static class Basket {
+        private String id;
+        private List<LineDto> lines;
+    }
+
+    private static final String ID = "5f8d0d55b54764421b7156c9";
+    /**
+     * A zone far from UTC, so that dates converted in UTC would fall on a different day.
+     */
+    private static final TimeZone TEST_ZONE = TimeZone.getTimeZone("Pacific/Auckland");
+
+    private final BuilderProxyFactory builderProxyFactory = new BuilderProxyFactory();
+    private final DefaultConversionService conversionService = new DefaultConversionService();
+    private TimeZone originalZone;
+
+    @Before
+    public void setUp() {
+        originalZone = TimeZone.getDefault();
+        TimeZone.setDefault(TEST_ZONE);
+        BuildableMongoConverters.converters().forEach(conversionService::addConverter);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(originalZone);
+    }
+
+    @Test
+    public void testWriteMapsIdAndNestedValues() {
+        final OrderDto order = order();
+
+        final Document document = conversionService.convert(order, Document.class);
+
+        assertEquals(new ObjectId(ID), document.get("_id"));
+        assertFalse(document.containsKey("id"));
+        assertEquals("OPEN", document.get("status"));
+        assertEquals(new Document("product", "widget").append("quantity", 2), document.get("mainLine"));
+        assertEquals(Arrays.asList(new Document("product", "widget").append("quantity", 2), new Document("product", "gadget").append("quantity", 0)),
+                document.get("lines"));
+        assertEquals("Optional values should be unwrapped", "urgent", document.get("note"));
+    }
+
+    @Test
+    public void testWriteDatesInSystemDefaultZone() {
+        final OrderDto order = order();
+
+        final Document document = conversionService.convert(order, Document.class);
+
+        assertEquals(Date.from(order.getOrderDate().atStartOfDay(ZoneId.systemDefault()).toInstant()), document.get("orderDate"));
+        assertEquals(Date.from(order.getCreated().atZone(ZoneId.systemDefault()).toInstant()), document.get("created"));
+        assertEquals(Date.from(order.getUpdated()), document.get("updated"));
+    }
+
+    @Test
+    public void testWriteOmitsNullsAndEmptyOptionals() {
+        final OrderDto order = builderProxyFactory.builder(OrderDto.Builder.class, OrderDto.class).status(Status.CLOSED).get();
+
+        final Document document = conversionService.convert(order, Document.class);
+
+        assertEquals(new Document("status", "CLOSED"), document);
+    }
+
+    @Test
+    public void testReadMapsIdAndNestedValues() {
+        final Document document = new Document("_id", new ObjectId(ID))
+                .append("status", "OPEN")
+                .append("mainLine", new Document("product", "widget").append("quantity", 2))
+                .append("lines", Arrays.asList(new Document("product", "gadget").append("quantity", 1)))
+                .append("note", "urgent");
+
+        final OrderDto order = conversionService.convert(document, OrderDto.class);
+
+        assertEquals(ID, order.getId());
+        assertEquals(Status.OPEN, order.getStatus());
+        assertEquals("widget", order.getMainLine().getProduct());
+        assertEquals(2, order.getMainLine().getQuantity());
+        assertEquals(1, order.getLines().size());
+        assertEquals("gadget", order.getLines().get(0).getProduct());
+        assertEquals(Optional.of("urgent"), order.getNote());
+    }
+
+    @Test
+    public void testReadDatesInSystemDefaultZone() {
+        final LocalDate orderDate = LocalDate.of(2020, 1, 2);
+        final LocalDateTime created = LocalDateTime.of(2020, 1, 2, 0, 30);
+        final Document document = new Document("orderDate", Date.from(orderDate.atStartOfDay(TEST_ZONE.toZoneId()).toInstant()))
+                .append("created", Date.from(created.atZone(TEST_ZONE.toZoneId()).toInstant()));
+
+        final OrderDto order = conversionService.convert(document, OrderDto.class);
+
+        assertEquals(orderDate, order.getOrderDate());
+        assertEquals(created, order.getCreated());
+    }
+
+    @Test
+    public void testReadMissingPropertiesAsDefaults() {
+        final OrderDto order = conversionService.convert(new Document(), OrderDto.class);
+
+        assertNull(order.getId());
+        assertNull(order.getLines());
+        assertEquals(Optional.empty(), order.getNote());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final OrderDto order = order();
+
+        final OrderDto read = conversionService.convert(conversionService.convert(order, Document.class), OrderDto.class);
+
+        assertEquals(order, read);
+    }
+
+    @Test
+    public void testMappingConverterReadsBuildableWithCustomConversions() {
+        final Document document = new Document("_id", new ObjectId(ID))
+                .append("status", "OPEN")
+                .append("lines", Arrays.asList(new Document("product", "gadget").append("quantity", 1)));
+
+        final OrderDto order = mappingConverter().read(OrderDto.class, document);
+
+        assertEquals(ID, order.getId());
+        assertEquals(Status.OPEN, order.getStatus());
+        assertEquals(1, order.getLines().size());
+        assertTrue(order.getLines().get(0) instanceof LineDto);
+        assertEquals("gadget", order.getLines().get(0).getProduct());
+    }
+
+    @Test
+    public void testMappingConverterReadsNestedListOfBuildablesInEntity() {
+        final Document document = new Document("_id", "b1")
+                .append("lines", Arrays.asList(new Document("product", "widget").append("quantity", 2),
+                        new Document("product", "gadget").append("quantity", 1)));
+
+        final Basket basket = mappingConverter().read(Basket.class, document);
+
+        assertEquals(2, basket.lines.size());
+        assertEquals("widget", basket.lines.get(0).getProduct());
+        assertEquals(2, basket.lines.get(0).getQuantity());
+        assertEquals("gadget", basket.lines.get(1).getProduct());
+    }
+
+    @Test
+    public void testMappingConverterWritesBuildableWithCustomConversions() {
+        final OrderDto order = order();
+        final Document document = new Document();
+
+        mappingConverter().write(order, document);
+
+        assertEquals(new ObjectId(ID), document.get("_id"));
+        assertEquals(new Document("product", "widget").append("quantity", 2), document.get("mainLine"));
+        assertEquals(order, mappingConverter().read(OrderDto.class, document));
+    }
+
+    private MappingMongoConverter mappingConverter() {
+        final MongoCustomConversions conversions = BuildableMongoConverters.customConversions();
+        final MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        final MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+
+    private OrderDto order() {
+        final LineDto.Builder lineBuilder = builderProxyFactory.builder(LineDto.Builder.class, LineDto.class);
+        final LineDto widget = lineBuilder.product("widget").quantity(2).get();
+        final LineDto gadget = lineBuilder.product("gadget").quantity(0).get();
+        return builderProxyFactory.builder(OrderDto.Builder.class, OrderDto.class)
+                .id(ID)
+                .status(Status.OPEN)
+                .mainLine(widget)
+                .lines(Arrays.asList(widget, gadget))
+                .note(Optional.of("urgent"))
+                .orderDate(LocalDate.of(2020, 1, 2))
+                .created(LocalDateTime.of(2020, 1, 2, 0, 30))
+                .updated(Instant.parse("2020-01-01T11:30:00Z"))
+                .get();
+    }
+}
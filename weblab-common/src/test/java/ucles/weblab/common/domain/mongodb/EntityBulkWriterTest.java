@@ -0,0 +1,121 @@
+package ucles.weblab.common.domain.mongodb;
+
+import com.mongodb.bulk.BulkWriteResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for EntityBulkWriter, using a mock in place of the database.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class EntityBulkWriterTest {
+
+    static class Thing extends AbstractEntity {
+        Thing(String id) {
+            super(id);
+        }
+    }
+
+    @Mock
+    private MongoOperations mongoOperations;
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private EntityBulkWriter writer;
+
+    @Before
+    public void setUp() {
+        lenient().when(mongoOperations.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+        lenient().when(mongoOperations.bulkOps(BulkOperations.BulkMode.ORDERED, Thing.class)).thenReturn(bulkOperations);
+        lenient().when(bulkOperations.execute()).thenReturn(BulkWriteResult.acknowledged(2, 0, 0, 0, Collections.emptyList()));
+        lenient().when(mongoOperations.getCollectionName(Thing.class)).thenReturn("things");
+        writer = new EntityBulkWriter(mongoOperations, 2, BulkOperations.BulkMode.ORDERED);
+    }
+
+    @Test
+    public void testInsertSplitsIntoBatches() {
+        final List<EntityBulkWriter.BatchResult> results = writer.insert(Thing.class,
+                Arrays.asList(new Thing("1"), new Thing("2"), new Thing("3"), new Thing("4"), new Thing("5")));
+
+        assertEquals(3, results.size());
+        assertEquals(2, results.get(0).getSize());
+        assertEquals(2, results.get(1).getSize());
+        assertEquals(1, results.get(2).getSize());
+        assertEquals(2, results.get(2).getIndex());
+        assertEquals(2, results.get(0).getResult().getInsertedCount());
+        verify(bulkOperations, times(3)).insert(anyList());
+        verify(bulkOperations, times(3)).execute();
+    }
+
+    @Test
+    public void testUpsertReplacesById() {
+        final Thing thing = new Thing("1");
+        writer.upsert(Thing.class, Collections.singletonList(thing));
+
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(bulkOperations).replaceOne(query.capture(), eq(thing), any(FindAndReplaceOptions.class));
+        assertEquals("1", query.getValue().getQueryObject().get("_id"));
+    }
+
+    @Test
+    public void testDeleteRemovesByIdInOneOperationPerBatch() {
+        writer.delete(Thing.class, Arrays.asList(new Thing("1"), new Thing("2"), new Thing("3")));
+
+        verify(bulkOperations, times(2)).remove(any(Query.class));
+        verify(bulkOperations, times(2)).execute();
+    }
+
+    @Test
+    public void testDeleteEvictsEntitiesCachedDuringExecution() {
+        final EntityCache entityCache = new EntityCache(mongoOperations, 100, Duration.ofMinutes(1));
+        final Thing thing = new Thing("1");
+        // Simulate a concurrent read caching the document while the delete is in progress
+        when(bulkOperations.execute()).thenAnswer(invocation -> {
+            entityCache.put(thing);
+            return BulkWriteResult.acknowledged(0, 0, 1, 0, Collections.emptyList());
+        });
+
+        new EntityBulkWriter(mongoOperations, 2, BulkOperations.BulkMode.ORDERED, entityCache).delete(Thing.class, Collections.singletonList(thing));
+
+        assertFalse(entityCache.findById(Thing.class, "1").isPresent());
+        verify(mongoOperations).findById("1", Thing.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUpsertRequiresId() {
+        writer.upsert(Thing.class, Collections.singletonList(new Thing(null)));
+    }
+
+    @Test
+    public void testEmptyInputDoesNothing() {
+        assertEquals(0, writer.insert(Thing.class, Collections.emptyList()).size());
+        verify(mongoOperations, never()).bulkOps(any(BulkOperations.BulkMode.class), any(Class.class));
+    }
+}
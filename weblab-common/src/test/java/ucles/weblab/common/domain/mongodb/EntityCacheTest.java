@@ -0,0 +1,164 @@
+package ucles.weblab.common.domain.mongodb;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for EntityCache, using a mock in place of the database.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class EntityCacheTest {
+
+    static class Animal extends AbstractEntity {
+        Animal(String id) {
+            super(id);
+        }
+    }
+
+    static class Dog extends Animal {
+        Dog(String id) {
+            super(id);
+        }
+    }
+
+    static class Cat extends Animal {
+        Cat(String id) {
+            super(id);
+        }
+    }
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    private EntityCache entityCache;
+
+    @Before
+    public void setUp() {
+        lenient().when(mongoOperations.getCollectionName(any())).thenReturn("animals");
+        lenient().when(mongoOperations.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        entityCache = new EntityCache(mongoOperations, 100, Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void testLoadsOnMissAndReturnsCachedOnHit() {
+        final Dog dog = new Dog("1");
+        when(mongoOperations.findById("1", Dog.class)).thenReturn(dog);
+
+        assertSame(dog, entityCache.findById(Dog.class, "1").get());
+        assertSame(dog, entityCache.findById(Dog.class, "1").get());
+
+        verify(mongoOperations, times(1)).findById("1", Dog.class);
+        assertEquals(1, entityCache.stats().hitCount());
+        assertEquals(1, entityCache.stats().missCount());
+    }
+
+    @Test
+    public void testMissingDocumentIsNotCached() {
+        assertFalse(entityCache.findById(Dog.class, "1").isPresent());
+        assertFalse(entityCache.findById(Dog.class, "1").isPresent());
+
+        verify(mongoOperations, times(2)).findById("1", Dog.class);
+    }
+
+    @Test
+    public void testEvictReloads() {
+        final Dog dog = new Dog("1");
+        when(mongoOperations.findById("1", Dog.class)).thenReturn(dog);
+        entityCache.findById(Dog.class, "1");
+
+        entityCache.evict(dog);
+        entityCache.findById(Dog.class, "1");
+
+        verify(mongoOperations, times(2)).findById("1", Dog.class);
+    }
+
+    @Test
+    public void testSaveCachesSavedEntity() {
+        final Dog dog = new Dog("1");
+
+        entityCache.save(dog);
+
+        assertSame(dog, entityCache.findById(Dog.class, "1").get());
+        verify(mongoOperations, never()).findById("1", Dog.class);
+    }
+
+    @Test
+    public void testFailedSaveLeavesNothingCached() {
+        final Dog dog = new Dog("1");
+        when(mongoOperations.save(dog)).thenThrow(new IllegalStateException("write failed"));
+
+        try {
+            entityCache.save(dog);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(Optional.empty(), entityCache.findById(Dog.class, "1"));
+        }
+    }
+
+    @Test
+    public void testDeleteOfSubclassEvictsEntityReadThroughSuperclass() {
+        final Dog dog = new Dog("1");
+        when(mongoOperations.findById("1", Animal.class)).thenReturn(dog).thenReturn(null);
+        assertSame(dog, entityCache.findById(Animal.class, "1").get());
+
+        entityCache.delete(dog);
+
+        assertFalse("Deleted entity should not be served through the superclass", entityCache.findById(Animal.class, "1").isPresent());
+        verify(mongoOperations).remove(dog);
+    }
+
+    @Test
+    public void testSaveOfSubclassReplacesEntityReadThroughSuperclass() {
+        final Dog dog = new Dog("1");
+        when(mongoOperations.findById("1", Animal.class)).thenReturn(new Dog("1"));
+        entityCache.findById(Animal.class, "1");
+
+        entityCache.save(dog);
+
+        assertSame(dog, entityCache.findById(Animal.class, "1").get());
+        assertSame(dog, entityCache.findById(Dog.class, "1").get());
+    }
+
+    @Test
+    public void testReadsOtherSubclassFromDatabase() {
+        final Cat cat = new Cat("1");
+        entityCache.put(new Dog("1"));
+        when(mongoOperations.findById("1", Cat.class)).thenReturn(cat);
+
+        assertSame(cat, entityCache.findById(Cat.class, "1").get());
+    }
+
+    @Test
+    public void testFailedDeleteEvicts() {
+        final Dog dog = new Dog("1");
+        entityCache.put(dog);
+        doThrow(new IllegalStateException("write failed")).when(mongoOperations).remove(dog);
+
+        try {
+            entityCache.delete(dog);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            entityCache.findById(Dog.class, "1");
+            verify(mongoOperations).findById("1", Dog.class);
+        }
+    }
+}
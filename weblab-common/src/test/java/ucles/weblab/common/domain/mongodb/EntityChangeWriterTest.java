@@ -0,0 +1,180 @@
+package ucles.weblab.common.domain.mongodb;
+
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for EntityChangeWriter, using a mock in place of the database.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class EntityChangeWriterTest {
+
+    static class Note extends AbstractEntity {
+        private String title;
+        private String body;
+
+        Note(String id) {
+            super(id);
+        }
+
+        void setTitle(String title) {
+            this.title = title;
+            markModified("title");
+        }
+
+        void setBody(String body) {
+            this.body = body;
+            markModified("body");
+        }
+    }
+
+    static class Account extends AbstractEntity {
+        private String name;
+        @Version
+        private Long version;
+
+        Account(String id, Long version) {
+            super(id);
+            this.version = version;
+        }
+
+        void setName(String name) {
+            this.name = name;
+            markModified("name");
+        }
+    }
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    private EntityChangeWriter writer;
+
+    @Before
+    public void setUp() {
+        lenient().when(mongoOperations.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+        lenient().when(mongoOperations.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        writer = new EntityChangeWriter(mongoOperations);
+    }
+
+    @Test
+    public void testWritesSetForValuesAndUnsetForNulls() {
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Note.class))).thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        final Note note = new Note("n1");
+        note.setTitle("Shopping");
+        note.setBody(null);
+
+        assertSame(note, writer.saveChanges(note));
+
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoOperations).updateFirst(query.capture(), update.capture(), eq(Note.class));
+        assertEquals(new Document("_id", "n1"), query.getValue().getQueryObject());
+        assertEquals(new Document("$set", new Document("title", "Shopping")).append("$unset", new Document("body", 1)),
+                update.getValue().getUpdateObject());
+        assertTrue("Modified properties should be cleared after saving", note.modifiedProperties().isEmpty());
+        verify(mongoOperations, never()).save(any());
+    }
+
+    @Test
+    public void testVersionedUpdateMatchesAndIncrementsVersion() {
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Account.class))).thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        final Account account = new Account("a1", 3L);
+        account.setName("Fred");
+
+        writer.saveChanges(account);
+
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoOperations).updateFirst(query.capture(), update.capture(), eq(Account.class));
+        assertEquals(new Document("_id", "a1").append("version", 3L), query.getValue().getQueryObject());
+        assertEquals(new Document("$set", new Document("name", "Fred")).append("$inc", new Document("version", 1)),
+                update.getValue().getUpdateObject());
+        assertEquals(Long.valueOf(4L), account.version);
+    }
+
+    @Test
+    public void testThrowsOptimisticLockingFailureWhenVersionDoesNotMatch() {
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Account.class))).thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        final Account account = new Account("a1", 3L);
+        account.setName("Fred");
+
+        try {
+            writer.saveChanges(account);
+            fail("Expected OptimisticLockingFailureException");
+        } catch (OptimisticLockingFailureException e) {
+            assertEquals(Long.valueOf(3L), account.version);
+            assertEquals("Changes should still be pending", 1, account.modifiedProperties().size());
+        }
+        verify(mongoOperations, never()).save(any());
+    }
+
+    @Test
+    public void testSavesInFullWhenUnversionedDocumentIsMissing() {
+        when(mongoOperations.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Note.class))).thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        final Note note = new Note("n1");
+        note.setTitle("Shopping");
+
+        writer.saveChanges(note);
+
+        verify(mongoOperations).save(note);
+        assertTrue(note.modifiedProperties().isEmpty());
+    }
+
+    @Test
+    public void testSavesInFullWhenChangesAreNotTracked() {
+        final Note note = new Note("n1");
+
+        writer.saveChanges(note);
+
+        verify(mongoOperations).save(note);
+        verify(mongoOperations, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), any(Class.class));
+    }
+
+    @Test
+    public void testSavesInFullWhenEntityIsNew() {
+        final Note note = new Note(null);
+        note.setTitle("Shopping");
+
+        writer.saveChanges(note);
+
+        verify(mongoOperations).save(note);
+        verify(mongoOperations, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), any(Class.class));
+    }
+
+    @Test
+    public void testWritesNothingWhenNothingHasChanged() {
+        final Note note = new Note("n1");
+        note.setTitle("Shopping");
+        note.clearModifiedProperties();
+
+        assertSame(note, writer.saveChanges(note));
+
+        verify(mongoOperations, never()).save(any());
+        verify(mongoOperations, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), any(Class.class));
+    }
+}
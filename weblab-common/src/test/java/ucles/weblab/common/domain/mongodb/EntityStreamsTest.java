@@ -0,0 +1,166 @@
+package ucles.weblab.common.domain.mongodb;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for EntityStreams, using a mock in place of the database.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class EntityStreamsTest {
+
+    /**
+     * A cursor over fixed values, which fails instead of returning the value <code>"fail"</code>.
+     */
+    static class TestCursor implements CloseableIterator<String> {
+        private final Iterator<String> values;
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        TestCursor(String... values) {
+            this.values = Arrays.asList(values).iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return values.hasNext();
+        }
+
+        @Override
+        public String next() {
+            final String value = values.next();
+            if ("fail".equals(value)) {
+                throw new IllegalStateException("cursor failed");
+            }
+            return value;
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        boolean awaitClosed() throws InterruptedException {
+            return closed.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Test
+    public void testAppliesDefaultBatchSizeWithoutChangingQuery() {
+        when(mongoOperations.stream(any(Query.class), eq(String.class))).thenReturn(new TestCursor("a"));
+        final Query query = new Query();
+
+        try (Stream<String> stream = new EntityStreams(mongoOperations).stream(query, String.class)) {
+            assertEquals(Arrays.asList("a"), stream.collect(Collectors.toList()));
+        }
+
+        final ArgumentCaptor<Query> run = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).stream(run.capture(), eq(String.class));
+        assertEquals(Integer.valueOf(EntityStreams.DEFAULT_BATCH_SIZE), run.getValue().getMeta().getCursorBatchSize());
+        assertNull("Caller's query should be unchanged", query.getMeta().getCursorBatchSize());
+    }
+
+    @Test
+    public void testKeepsExplicitBatchSize() {
+        when(mongoOperations.stream(any(Query.class), eq(String.class))).thenReturn(new TestCursor("a"));
+        final Query query = new Query().cursorBatchSize(10);
+
+        new EntityStreams(mongoOperations, 50).stream(query, String.class).close();
+
+        final ArgumentCaptor<Query> run = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).stream(run.capture(), eq(String.class));
+        assertEquals(Integer.valueOf(10), run.getValue().getMeta().getCursorBatchSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveBatchSize() {
+        new EntityStreams(mongoOperations, 0);
+    }
+
+    @Test
+    public void testStreamCloseClosesCursor() throws InterruptedException {
+        final TestCursor cursor = new TestCursor("a", "b");
+        when(mongoOperations.stream(any(Query.class), eq(String.class))).thenReturn(cursor);
+
+        final Stream<String> stream = new EntityStreams(mongoOperations).stream(new Query(), String.class);
+        assertEquals("a", stream.findFirst().get());
+        stream.close();
+
+        assertTrue(cursor.awaitClosed());
+    }
+
+    @Test
+    public void testFluxClosesCursorOnCompletion() throws InterruptedException {
+        final TestCursor cursor = new TestCursor("a", "b");
+        when(mongoOperations.stream(any(Query.class), eq(String.class))).thenReturn(cursor);
+
+        StepVerifier.create(new EntityStreams(mongoOperations).flux(new Query(), String.class))
+                .expectNext("a", "b")
+                .verifyComplete();
+
+        assertTrue(cursor.awaitClosed());
+    }
+
+    @Test
+    public void testFluxClosesCursorOnError() throws InterruptedException {
+        final TestCursor cursor = new TestCursor("a", "fail", "c");
+        when(mongoOperations.stream(any(Query.class), eq(String.class))).thenReturn(cursor);
+
+        StepVerifier.create(new EntityStreams(mongoOperations).flux(new Query(), String.class))
+                .expectNext("a")
+                .verifyError(IllegalStateException.class);
+
+        assertTrue(cursor.awaitClosed());
+    }
+
+    @Test
+    public void testFluxClosesCursorOnCancellation() throws InterruptedException {
+        final TestCursor cursor = new TestCursor("a", "b", "c");
+        when(mongoOperations.stream(any(Query.class), eq(String.class))).thenReturn(cursor);
+
+        StepVerifier.create(new EntityStreams(mongoOperations).flux(new Query(), String.class).take(1))
+                .expectNext("a")
+                .verifyComplete();
+
+        assertTrue(cursor.awaitClosed());
+    }
+
+    @Test
+    public void testFluxRunsQueryOnlyWhenSubscribed() {
+        when(mongoOperations.stream(any(Query.class), eq(String.class))).thenReturn(new TestCursor("a"));
+        final Flux<String> flux = new EntityStreams(mongoOperations).flux(new Query(), String.class);
+        verify(mongoOperations, never()).stream(any(Query.class), eq(String.class));
+
+        final List<String> results = flux.collectList().block();
+
+        assertEquals(Arrays.asList("a"), results);
+        verify(mongoOperations).stream(any(Query.class), eq(String.class));
+    }
+}
@@ -0,0 +1,78 @@
+package ucles.weblab.common.security;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for LogbackUserConverter, checking where the user is read from.
+ */
+public class LogbackUserConverterTest {
+    private final LogbackUserConverter converter = new LogbackUserConverter();
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+        MDC.clear();
+    }
+
+    @Test
+    public void testPrefersUserInEventMdc() {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("bob", "password"));
+        final LoggingEvent event = new LoggingEvent();
+        event.setMDCPropertyMap(Collections.singletonMap(LogbackUserConverter.USER_MDC_KEY, "alice"));
+
+        assertEquals("alice", converter.convert(event));
+    }
+
+    @Test
+    public void testFallsBackToSecurityContext() {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("bob", "password"));
+        final LoggingEvent event = new LoggingEvent();
+        event.setMDCPropertyMap(Collections.emptyMap());
+
+        assertEquals("bob", converter.convert(event));
+    }
+
+    @Test
+    public void testReportsNoUser() {
+        final LoggingEvent event = new LoggingEvent();
+        event.setMDCPropertyMap(Collections.emptyMap());
+
+        assertEquals("(no user)", converter.convert(event));
+    }
+
+    @Test
+    public void testReadsUserCapturedWithEventOnAnotherThread() throws Exception {
+        final ExecutorService loggingThread = Executors.newSingleThreadExecutor();
+        final LoggingEvent event;
+        try {
+            // As for an AsyncAppender, the event captures the MDC of the logging thread before being queued
+            event = CompletableFuture.supplyAsync(() -> {
+                MDC.put(LogbackUserConverter.USER_MDC_KEY, "alice");
+                try {
+                    final LoggingEvent loggingEvent = new LoggingEvent();
+                    loggingEvent.getMDCPropertyMap();
+                    return loggingEvent;
+                } finally {
+                    MDC.remove(LogbackUserConverter.USER_MDC_KEY);
+                }
+            }, loggingThread).get();
+        } finally {
+            loggingThread.shutdown();
+        }
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("bob", "password"));
+
+        assertEquals("alice", converter.convert(event));
+    }
+}
@@ -0,0 +1,65 @@
+package ucles.weblab.common.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for MicrometerSecurityCheckInstrumentation, checking the timers it registers.
+ */
+public class MicrometerSecurityCheckInstrumentationTest {
+    private SimpleMeterRegistry meterRegistry;
+    private MicrometerSecurityCheckInstrumentation instrumentation;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        instrumentation = new MicrometerSecurityCheckInstrumentation(meterRegistry, 2);
+    }
+
+    @Test
+    public void testChecksAreTaggedByNormalizedCheckAndOutcome() {
+        instrumentation.checked("hasRole('USER')  and\n isAuthenticated()", true, 1000);
+        instrumentation.checked("hasRole('USER')  and\n isAuthenticated()", false, 1000);
+        instrumentation.checked("hasRole('USER')  and\n isAuthenticated()", false, 1000);
+
+        assertEquals(1, meterRegistry.get(MicrometerSecurityCheckInstrumentation.CHECK_METRIC)
+                .tag("check", "hasRole('USER') and isAuthenticated()").tag("outcome", "allowed").timer().count());
+        assertEquals(2, meterRegistry.get(MicrometerSecurityCheckInstrumentation.CHECK_METRIC)
+                .tag("check", "hasRole('USER') and isAuthenticated()").tag("outcome", "denied").timer().count());
+    }
+
+    @Test
+    public void testChecksBeyondLimitAreTaggedAsOther() {
+        instrumentation.checked("hasRole('A')", true, 1000);
+        instrumentation.checked("hasRole('B')", true, 1000);
+        instrumentation.checked("hasRole('C')", true, 1000);
+        instrumentation.checked("hasRole('D')", false, 1000);
+        instrumentation.checked("hasRole('A')", true, 1000);
+
+        assertEquals(2, meterRegistry.get(MicrometerSecurityCheckInstrumentation.CHECK_METRIC)
+                .tag("check", "hasRole('A')").tag("outcome", "allowed").timer().count());
+        assertEquals(1, meterRegistry.get(MicrometerSecurityCheckInstrumentation.CHECK_METRIC)
+                .tag("check", MicrometerSecurityCheckInstrumentation.OTHER_TAG).tag("outcome", "allowed").timer().count());
+        assertEquals(1, meterRegistry.get(MicrometerSecurityCheckInstrumentation.CHECK_METRIC)
+                .tag("check", MicrometerSecurityCheckInstrumentation.OTHER_TAG).tag("outcome", "denied").timer().count());
+        assertEquals("Two checks and other, each allowed and denied", 6,
+                meterRegistry.get(MicrometerSecurityCheckInstrumentation.CHECK_METRIC).timers().size());
+    }
+
+    @Test
+    public void testExpressionsBeyondLimitAreTaggedAsOther() {
+        instrumentation.expressionParsed("hasRole('A')", 1000);
+        instrumentation.expressionParsed("hasRole('B')", 1000);
+        instrumentation.expressionParsed("hasRole('C')", 1000);
+        instrumentation.expressionParsed("hasRole('D')", 1000);
+
+        assertEquals(1, meterRegistry.get(MicrometerSecurityCheckInstrumentation.PARSE_METRIC)
+                .tag("expression", "hasRole('B')").timer().count());
+        assertEquals(2, meterRegistry.get(MicrometerSecurityCheckInstrumentation.PARSE_METRIC)
+                .tag("expression", MicrometerSecurityCheckInstrumentation.OTHER_TAG).timer().count());
+        assertEquals(3, meterRegistry.get(MicrometerSecurityCheckInstrumentation.PARSE_METRIC).timers().size());
+    }
+}
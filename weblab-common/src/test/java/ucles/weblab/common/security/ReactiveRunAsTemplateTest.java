@@ -0,0 +1,75 @@
+package ucles.weblab.common.security;
+
+import org.junit.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.userdetails.User;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+/**
+ * Unit test for ReactiveRunAsTemplate, checking the security context seen inside reactive pipelines.
+ */
+public class ReactiveRunAsTemplateTest {
+    private final Authentication runAs = new TestingAuthenticationToken("batch", "password", "ROLE_BATCH");
+    private final ReactiveRunAsTemplate template = new ReactiveRunAsTemplate(runAs);
+
+    private static Mono<String> currentUser() {
+        return ReactiveSecurityContextHolder.getContext()
+                .map(SecurityContext::getAuthentication)
+                .map(Authentication::getName);
+    }
+
+    @Test
+    public void testMonoSeesRunAsAuthentication() {
+        StepVerifier.create(template.execute(ReactiveSecurityContextHolder.getContext().map(SecurityContext::getAuthentication)))
+                .expectNext(runAs)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testFluxSeesRunAsAuthenticationOnOtherThreads() {
+        final Flux<String> users = Flux.range(1, 3)
+                .publishOn(Schedulers.parallel())
+                .flatMap(i -> currentUser().map(user -> user + i));
+
+        StepVerifier.create(template.execute(users))
+                .expectNext("batch1", "batch2", "batch3")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testOverridesContextWrittenDownstream() {
+        final Authentication other = new TestingAuthenticationToken("alice", "password");
+
+        StepVerifier.create(template.execute(currentUser())
+                .subscriberContext(ReactiveSecurityContextHolder.withAuthentication(other)))
+                .expectNext("batch")
+                .verifyComplete();
+        StepVerifier.create(template.execute(Flux.from(currentUser()))
+                .subscriberContext(ReactiveSecurityContextHolder.withAuthentication(other)))
+                .expectNext("batch")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testPipelineWithoutTemplateHasNoUser() {
+        StepVerifier.create(currentUser())
+                .verifyComplete();
+    }
+
+    @Test
+    public void testRunsAsUserDetails() {
+        final ReactiveRunAsTemplate userTemplate = new ReactiveRunAsTemplate(
+                new User("reporter", "password", AuthorityUtils.createAuthorityList("ROLE_REPORTS")));
+
+        StepVerifier.create(userTemplate.execute(currentUser()))
+                .expectNext("reporter")
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,130 @@
+package ucles.weblab.common.security;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for RunAsTemplate, checking the security context and MDC seen by callbacks on the caller's and worker
+ * threads.
+ */
+public class RunAsTemplateTest {
+    private final Authentication runAs = new TestingAuthenticationToken("batch", "password", "ROLE_BATCH");
+    private final RunAsTemplate template = new RunAsTemplate(runAs);
+    private ExecutorService worker;
+
+    @Before
+    public void setUp() {
+        worker = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        worker.shutdownNow();
+        SecurityContextHolder.clearContext();
+        MDC.clear();
+    }
+
+    @Test
+    public void testExecuteRestoresCallersContextAndMdc() {
+        final Authentication caller = new TestingAuthenticationToken("alice", "password");
+        SecurityContextHolder.getContext().setAuthentication(caller);
+        MDC.put(LogbackUserConverter.USER_MDC_KEY, "alice");
+
+        final String user = template.execute(() -> SecurityContextHolder.getContext().getAuthentication().getName()
+                + "/" + MDC.get(LogbackUserConverter.USER_MDC_KEY));
+
+        assertEquals("batch/batch", user);
+        assertSame(caller, SecurityContextHolder.getContext().getAuthentication());
+        assertEquals("alice", MDC.get(LogbackUserConverter.USER_MDC_KEY));
+    }
+
+    @Test
+    public void testExecuteAsyncRunsAsUserOnWorkerThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+
+        final CompletableFuture<Authentication> seen = template.executeAsync(() -> {
+            assertNotSame(caller, Thread.currentThread());
+            assertEquals("batch", MDC.get(LogbackUserConverter.USER_MDC_KEY));
+            return SecurityContextHolder.getContext().getAuthentication();
+        }, worker);
+
+        assertSame(runAs, seen.get(5, TimeUnit.SECONDS));
+        assertNull("Caller's context should be untouched", SecurityContextHolder.getContext().getAuthentication());
+    }
+
+    @Test
+    public void testWrappedExecutorRestoresWorkersContextAndMdc() throws Exception {
+        final Authentication workerAuth = new TestingAuthenticationToken("worker", "password");
+        worker.submit(() -> {
+            SecurityContextHolder.getContext().setAuthentication(workerAuth);
+            MDC.put(LogbackUserConverter.USER_MDC_KEY, "worker");
+        }).get(5, TimeUnit.SECONDS);
+
+        template.executeAsync(() -> { }, worker).get(5, TimeUnit.SECONDS);
+
+        final String restored = worker.submit(() -> SecurityContextHolder.getContext().getAuthentication().getName()
+                + "/" + MDC.get(LogbackUserConverter.USER_MDC_KEY)).get(5, TimeUnit.SECONDS);
+        assertEquals("worker/worker", restored);
+    }
+
+    @Test
+    public void testExecuteAsyncCompletesExceptionallyWhenCallbackFails() throws Exception {
+        final CompletableFuture<Object> future = template.executeAsync(() -> {
+            throw new IllegalStateException("callback failed");
+        }, worker);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testWrappedExecutorServiceRunsAsUser() throws Exception {
+        final ExecutorService executorService = template.wrap(worker);
+
+        final Future<String> user = executorService.submit(() -> SecurityContextHolder.getContext().getAuthentication().getName()
+                + "/" + MDC.get(LogbackUserConverter.USER_MDC_KEY));
+
+        assertEquals("batch/batch", user.get(5, TimeUnit.SECONDS));
+        final String restored = worker.submit(() -> SecurityContextHolder.getContext().getAuthentication()
+                + "/" + MDC.get(LogbackUserConverter.USER_MDC_KEY)).get(5, TimeUnit.SECONDS);
+        assertEquals("null/null", restored);
+    }
+
+    @Test
+    public void testNewVirtualThreadPerTaskExecutorRunsTasksAsUser() throws Exception {
+        final ExecutorService executorService = template.newVirtualThreadPerTaskExecutor();
+        try {
+            final Future<String> user = executorService.submit(() -> SecurityContextHolder.getContext().getAuthentication().getName()
+                    + "/" + MDC.get(LogbackUserConverter.USER_MDC_KEY));
+
+            assertEquals("batch/batch", user.get(5, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdown();
+        }
+        assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
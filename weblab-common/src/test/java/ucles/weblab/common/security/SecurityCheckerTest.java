@@ -0,0 +1,110 @@
+package ucles.weblab.common.security;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.hateoas.server.core.MethodInvocation;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for SecurityChecker expression checks.
+ */
+public class SecurityCheckerTest {
+    private SecurityChecker securityChecker;
+
+    static class Controller {
+        @Secured("ROLE_USER")
+        public void userOnly() { /* for annotation */ }
+    }
+
+    @Before
+    public void setUp() {
+        securityChecker = new SecurityChecker(new DefaultMethodSecurityExpressionHandler());
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("user", "password", "ROLE_USER"));
+    }
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testCheck() {
+        assertTrue(securityChecker.check("hasRole('USER')"));
+        assertFalse(securityChecker.check("hasRole('ADMIN')"));
+    }
+
+    @Test
+    public void testCheckWithoutAuthentication() {
+        SecurityContextHolder.clearContext();
+        assertFalse(securityChecker.check("permitAll"));
+        assertEquals(Boolean.FALSE, securityChecker.checkAll(Arrays.asList("permitAll")).get("permitAll"));
+    }
+
+    @Test
+    public void testCheckAllPreservesOrder() {
+        final Map<String, Boolean> results = securityChecker.checkAll(Arrays.asList("hasRole('ADMIN')", "hasRole('USER')", "isAuthenticated()"));
+
+        assertEquals(Arrays.asList("hasRole('ADMIN')", "hasRole('USER')", "isAuthenticated()"), Arrays.asList(results.keySet().toArray()));
+        assertEquals(Arrays.asList(false, true, true), Arrays.asList(results.values().toArray()));
+    }
+
+    @Test
+    public void testDecisionCacheSavesEvaluations() {
+        securityChecker.withDecisionCache(() -> {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(securityChecker.check("hasRole('USER')"));
+            }
+            return null;
+        });
+        assertEquals(4, securityChecker.getSavedEvaluationCount());
+
+        securityChecker.check("hasRole('USER')");
+        assertEquals("No caching outside the scope", 4, securityChecker.getSavedEvaluationCount());
+    }
+
+    @Test
+    public void testSecuredDecisionSharedBetweenUsersWithSameAuthorities() throws NoSuchMethodException {
+        final Method method = Controller.class.getMethod("userOnly");
+        final MethodInvocation invocation = new MethodInvocation() {
+            @Override
+            public Class<?> getTargetType() {
+                return Controller.class;
+            }
+
+            @Override
+            public Method getMethod() {
+                return method;
+            }
+
+            @Override
+            public Object[] getArguments() {
+                return new Object[0];
+            }
+        };
+
+        assertTrue(securityChecker.check(invocation));
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("other", "password", "ROLE_USER"));
+        assertTrue(securityChecker.check(invocation));
+        assertEquals(1, securityChecker.getSavedEvaluationCount());
+
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("admin", "password", "ROLE_ADMIN"));
+        assertFalse(securityChecker.check(invocation));
+        assertEquals(1, securityChecker.getSavedEvaluationCount());
+
+        securityChecker.invalidateAuthorityDecisions();
+        assertFalse(securityChecker.check(invocation));
+        assertEquals(1, securityChecker.getSavedEvaluationCount());
+    }
+}
@@ -0,0 +1,70 @@
+package ucles.weblab.common.security;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit test for UserMdcFilter, checking the MDC seen by the rest of the filter chain.
+ */
+public class UserMdcFilterTest {
+    private final UserMdcFilter filter = new UserMdcFilter();
+    private final HttpServletRequest request = mock(HttpServletRequest.class);
+    private final HttpServletResponse response = mock(HttpServletResponse.class);
+    private final AtomicReference<String> userInChain = new AtomicReference<>();
+    private final FilterChain chain = (req, res) -> userInChain.set(MDC.get(LogbackUserConverter.USER_MDC_KEY));
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+        MDC.clear();
+    }
+
+    @Test
+    public void testPutsUserInMdcForChainAndRemovesItAfterwards() throws ServletException, IOException {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("alice", "password", "ROLE_USER"));
+
+        filter.doFilterInternal(request, response, chain);
+
+        assertEquals("alice", userInChain.get());
+        assertNull(MDC.get(LogbackUserConverter.USER_MDC_KEY));
+    }
+
+    @Test
+    public void testLeavesMdcAloneWhenUnauthenticated() throws ServletException, IOException {
+        userInChain.set("not called");
+
+        filter.doFilterInternal(request, response, chain);
+
+        assertNull("Chain should run without a user in the MDC", userInChain.get());
+        assertNull(MDC.get(LogbackUserConverter.USER_MDC_KEY));
+    }
+
+    @Test
+    public void testRemovesUserWhenChainFails() throws IOException {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("alice", "password", "ROLE_USER"));
+
+        try {
+            filter.doFilterInternal(request, response, (req, res) -> {
+                throw new ServletException("chain failed");
+            });
+            fail("Expected ServletException");
+        } catch (ServletException e) {
+            assertNull(MDC.get(LogbackUserConverter.USER_MDC_KEY));
+        }
+    }
+}